@@ -1,60 +1,381 @@
 package de.luvetter;
 
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 
 // TODO: Java-Doc (überall)
-public class ArvatoVendingMachine {
+public class ArvatoVendingMachine implements AutoCloseable {
 
-    private final List<Slot>   slots;
-    private final CashRegister cashRegister = new CashRegister();
+    // Gemeinsamer Daemon-Thread für alle Automaten ohne eigenen Scheduler, wie ForkJoinPool.commonPool() beim VendingEventPublisher.
+    // Der Thread startet erst mit der ersten Aufgabe, abgebrochene Preisaktualisierungen fliegen sofort aus der Queue.
+    private static final ScheduledExecutorService DEFAULT_SCHEDULER = createDefaultScheduler();
+
+    private final List<Slot>               slots;
+    private final VendingEventPublisher    events;
+    private final CashRegister             cashRegister;
+    private final LiveStateRegion          liveState;
+    private final Clock                    clock;
+    private volatile PriceTable            priceTable;
+    // Zuletzt als PriceChange veröffentlichte effektive Preise, geschützt durch den Monitor des Automaten
+    private final int[]                    announcedPrices;
+    private final ScheduledExecutorService scheduler;
+    private ScheduledFuture<?>             nextPriceRefresh;
+    private boolean                        closed;
+    private final AtomicInteger            mirrorRequests = new AtomicInteger();
 
     public ArvatoVendingMachine(final List<ProductStash> inventories) {
+        this(inventories, null);
+    }
+
+    public ArvatoVendingMachine(final List<ProductStash> inventories, final LiveStateRegion liveState) {
+        this(inventories, liveState, new VendingEventPublisher());
+    }
+
+    public ArvatoVendingMachine(final List<ProductStash> inventories, final LiveStateRegion liveState, final VendingEventPublisher events) {
+        this(inventories, liveState, events, Clock.systemDefaultZone());
+    }
+
+    public ArvatoVendingMachine(final List<ProductStash> inventories, final LiveStateRegion liveState, final VendingEventPublisher events, final Clock clock) {
+        this(inventories, liveState, events, clock, DEFAULT_SCHEDULER);
+    }
+
+    // Der Scheduler aktualisiert die Preise an den Abschnittsgrenzen und übernimmt Live-State Schreibvorgänge, die unter Last liegen bleiben.
+    // Er wartet in Echtzeit, die Uhr sollte also mitlaufen (System-Uhr oder Clock.offset).
+    // Mit einer stehenden Uhr passiert an den Abschnittsgrenzen nichts, refreshPrices() muss dann selbst aufgerufen werden.
+    public ArvatoVendingMachine(final List<ProductStash> inventories, final LiveStateRegion liveState, final VendingEventPublisher events, final Clock clock,
+                                final ScheduledExecutorService scheduler) {
         if (inventories == null || inventories.isEmpty()) {
             throw new IllegalArgumentException("Die Anzahl der Slots muss mindestens 1 sein");
         }
+        if (events == null) {
+            throw new IllegalArgumentException("Bitte geben Sie einen VendingEventPublisher an");
+        }
+        if (clock == null) {
+            throw new IllegalArgumentException("Bitte geben Sie eine Uhr an");
+        }
+        if (scheduler == null) {
+            throw new IllegalArgumentException("Bitte geben Sie einen ScheduledExecutorService an");
+        }
+        if (liveState != null && liveState.getSlotCount() != inventories.size()) {
+            throw new IllegalArgumentException("Die Live-State Datei hat " + liveState.getSlotCount() + " Slots, der Automat aber " + inventories.size());
+        }
         this.slots = inventories.stream().map(Slot::new).toList();
+        this.liveState = liveState;
+        this.events = events;
+        this.cashRegister = new CashRegister(events);
+        this.clock = clock;
+        this.scheduler = scheduler;
+        this.priceTable = PriceTable.compile(List.of(), List.of(), new int[slots.size()]);
+        this.announcedPrices = new int[slots.size()];
+        mirrorState();
     }
 
     public ProductAndChange buy(final int slot, final EuroCoin... coins) {
-        final ProductStash inventory = getProductStash(slot);
-        if (inventory.isEmpty()) {
-            throw new IllegalStateException("Slot " + slot + " ist leer");
+        final ProductsAndChange result = buy(List.of(slot), coins);
+        return new ProductAndChange(result.products().get(0), result.change());
+    }
+
+    // Kauft alle Produkte des Warenkorbs mit einer Zahlung: entweder werden alle ausgegeben oder keins.
+    // Ein Slot darf mehrfach im Warenkorb stehen. Die Slots werden immer aufsteigend gesperrt, damit sich
+    // parallele Warenkörbe mit gemeinsamen Slots nicht gegenseitig verklemmen (Deadlock).
+    public ProductsAndChange buy(final List<Integer> cart, final EuroCoin... coins) {
+        final Map<Integer, Integer> quantities = countQuantities(cart);
+        final List<Slot> lockOrder = quantities.keySet().stream().map(slots::get).toList();
+        final Set<EuroCoin> changedCoins = EnumSet.noneOf(EuroCoin.class);
+        return underSlotLocks(lockOrder, changedCoins, pendingEvents -> {
+            final int totalPrice = calculateTotalPrice(quantities);
+            // Wirft ohne den Münzbestand zu verändern, wenn kein Wechselgeld gegeben werden kann
+            final EuroCoin[] change = cashRegister.getChange(totalPrice, coins, changedCoins);
+            final List<Object> products = new ArrayList<>(cart.size());
+            for (final int slot : cart) {
+                final Slot source = slots.get(slot);
+                final Object product = source.inventory.dropNext();
+                source.updateProductCount();
+                products.add(product);
+                if (events.hasSubscribers()) {
+                    pendingEvents.add(new VendingEvent.Sale(slot, product, source.productCount));
+                    addIfEmpty(pendingEvents, slot, source);
+                }
+            }
+            return new ProductsAndChange(products, change);
+        });
+    }
+
+    // Führt "action" unter den Locks der Slots aus. Events (auch die der in "changedCoins" gesammelten Münzarten) und Live-State
+    // werden erst nach Freigabe der Slots geschrieben, damit parallele Käufe dabei nicht warten müssen. Das publishLock wird
+    // noch unter dem Slot-Lock genommen, so kommen die Events eines Slots in derselben Reihenfolge an, in der die Änderungen passiert sind.
+    private <T> T underSlotLocks(final List<Slot> lockOrder, final Set<EuroCoin> changedCoins, final Function<List<VendingEvent>, T> action) {
+        final List<VendingEvent> pendingEvents = new ArrayList<>();
+        final T result;
+        for (final Slot slot : lockOrder) {
+            slot.lock.lock();
         }
-        final int price = getPrice(slot);
-        final EuroCoin[] change = cashRegister.getChange(price, coins);
-        return new ProductAndChange(inventory.dropNext(), change);
+        try {
+            result = action.apply(pendingEvents);
+            if (!pendingEvents.isEmpty()) {
+                for (final Slot slot : lockOrder) {
+                    slot.publishLock.lock();
+                }
+            }
+        } finally {
+            for (int i = lockOrder.size() - 1; i >= 0; i--) {
+                lockOrder.get(i).lock.unlock();
+            }
+        }
+        try {
+            cashRegister.publishCoinLevels(changedCoins);
+            pendingEvents.forEach(events::publish);
+        } finally {
+            if (!pendingEvents.isEmpty()) {
+                for (int i = lockOrder.size() - 1; i >= 0; i--) {
+                    lockOrder.get(i).publishLock.unlock();
+                }
+            }
+        }
+        mirrorState();
+        return result;
+    }
+
+    // TreeMap, damit die Slots immer in derselben Reihenfolge gesperrt werden
+    private Map<Integer, Integer> countQuantities(final List<Integer> cart) {
+        if (cart == null || cart.isEmpty()) {
+            throw new IllegalArgumentException("Der Warenkorb muss mindestens ein Produkt enthalten");
+        }
+        final Map<Integer, Integer> quantities = new TreeMap<>();
+        for (final Integer slot : cart) {
+            if (slot == null) {
+                throw new IllegalArgumentException("Der Warenkorb darf keine null Einträge enthalten");
+            }
+            validateSlotRange(slot);
+            quantities.merge(slot, 1, Integer::sum);
+        }
+        return quantities;
+    }
+
+    private int calculateTotalPrice(final Map<Integer, Integer> quantities) {
+        for (final Map.Entry<Integer, Integer> entry : quantities.entrySet()) {
+            final int slot = entry.getKey();
+            final int quantity = entry.getValue();
+            final int available = slots.get(slot).productCount;
+            if (available == 0) {
+                throw new IllegalStateException("Slot " + slot + " ist leer");
+            }
+            if (available < quantity) {
+                throw new IllegalStateException("Slot " + slot + " enthält nur " + available + " Produkte, im Warenkorb sind " + quantity);
+            }
+        }
+        // Ein Zeitpunkt und eine Preistabelle für den ganzen Warenkorb, inklusive Paketpreisen
+        return priceTable.getTotalPrice(LocalTime.now(clock), quantities);
     }
 
     public void addCoins(final EuroCoin... coins) {
         cashRegister.addCoins(coins);
+        mirrorState();
     }
 
     public int emptyCoinType(final EuroCoin coin) {
-        return cashRegister.emptyCoinType(coin);
+        final int removed = cashRegister.emptyCoinType(coin);
+        mirrorState();
+        return removed;
     }
 
-    public void setPrice(final int slot, final int cents) {
+    public synchronized void setPrice(final int slot, final int cents) {
         getSlot(slot).setPrice(cents);
+        priceTable = priceTable.withBasePrice(slot, cents);
+        announcePrices();
+        mirrorState();
     }
 
+    // Effektiver Preis zur aktuellen Uhrzeit, also Basispreis mit allen gerade aktiven Preisregeln
     public int getPrice(final int slot) {
+        validateSlotRange(slot);
+        return priceTable.getPrice(LocalTime.now(clock), slot);
+    }
+
+    public int getBasePrice(final int slot) {
         return getSlot(slot).getPrice();
     }
 
+    public void setPricingRules(final List<PricingRule> rules) {
+        setPricingRules(rules, List.of());
+    }
+
+    // Ersetzt alle bisherigen Preisregeln und Paketpreise. Beides wird einmalig vorberechnet, Käufe werten keine Regeln mehr aus.
+    public synchronized void setPricingRules(final List<PricingRule> rules, final List<ComboPrice> comboPrices) {
+        if (rules == null) {
+            throw new IllegalArgumentException("Preisregeln dürfen nicht null sein");
+        }
+        if (comboPrices == null) {
+            throw new IllegalArgumentException("Paketpreise dürfen nicht null sein");
+        }
+        priceTable = PriceTable.compile(rules, comboPrices, slots.stream().mapToInt(Slot::getPrice).toArray());
+        announcePrices();
+        scheduleNextPriceRefresh();
+        mirrorState();
+    }
+
+    // Läuft an jeder Abschnittsgrenze der Preistabelle, damit Events und Live-State den dann gültigen Preis zeigen
+    synchronized void refreshPrices() {
+        announcePrices();
+        scheduleNextPriceRefresh();
+        mirrorState();
+    }
+
+    // Veröffentlicht PriceChange für jeden Slot, dessen effektiver Preis sich seit der letzten Meldung geändert hat
+    private void announcePrices() {
+        final LocalTime now = LocalTime.now(clock);
+        for (int slot = 0; slot < slots.size(); slot++) {
+            final int price = priceTable.getPrice(now, slot);
+            if (price != announcedPrices[slot]) {
+                announcedPrices[slot] = price;
+                if (events.hasSubscribers()) {
+                    events.publish(new VendingEvent.PriceChange(slot, price));
+                }
+            }
+        }
+    }
+
+    private void scheduleNextPriceRefresh() {
+        if (nextPriceRefresh != null) {
+            nextPriceRefresh.cancel(false);
+            nextPriceRefresh = null;
+        }
+        if (closed || !priceTable.hasTimeDependentPrices()) {
+            return;
+        }
+        // Kommt die Aktualisierung laut Uhr zu früh, plant refreshPrices() einfach die Restzeit neu ein
+        final Duration delay = priceTable.untilNextSegment(LocalTime.now(clock));
+        nextPriceRefresh = scheduler.schedule(this::refreshPrices, delay.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    // Bricht die nächste geplante Preisaktualisierung ab, danach plant der Automat keine mehr ein.
+    // Der Scheduler selbst gehört dem Aufrufer bzw. allen Automaten und wird nicht beendet.
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (nextPriceRefresh != null) {
+            nextPriceRefresh.cancel(false);
+            nextPriceRefresh = null;
+        }
+    }
+
+    private static ScheduledExecutorService createDefaultScheduler() {
+        final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            final Thread thread = new Thread(runnable, "vending-machine-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
     public void addProducts(final int slot, final Object... products) {
-        getProductStash(slot).addProducts(products);
+        final Slot target = getSlot(slot);
+        underSlotLocks(List.of(target), Set.of(), pendingEvents -> {
+            final int previousCount = target.productCount;
+            target.inventory.addProducts(products);
+            target.updateProductCount();
+            if (target.productCount != previousCount && events.hasSubscribers()) {
+                pendingEvents.add(new VendingEvent.Restock(slot, target.productCount));
+            }
+            return null;
+        });
     }
 
     public List<Object> listProducts(final int slot) {
-        return getProductStash(slot).listProducts();
+        final Slot target = getSlot(slot);
+        target.lock.lock();
+        try {
+            return target.inventory.listProducts();
+        } finally {
+            target.lock.unlock();
+        }
     }
 
     public void removeProducts(final int slot, final Object... products) {
-        getProductStash(slot).removeProducts(products);
+        final Slot target = getSlot(slot);
+        underSlotLocks(List.of(target), Set.of(), pendingEvents -> {
+            final int previousCount = target.productCount;
+            target.inventory.removeProducts(products);
+            target.updateProductCount();
+            if (target.productCount != previousCount && events.hasSubscribers()) {
+                pendingEvents.add(new VendingEvent.ProductsRemoved(slot, target.productCount));
+                addIfEmpty(pendingEvents, slot, target);
+            }
+            return null;
+        });
+    }
+
+    public Flow.Publisher<VendingEvent> getEvents() {
+        return events;
+    }
+
+    // Nur aufrufen, wenn sich der Bestand gerade verringert hat: StashEmptied meldet den Übergang auf leer
+    private static void addIfEmpty(final List<VendingEvent> pendingEvents, final int slot, final Slot source) {
+        if (source.productCount == 0) {
+            pendingEvents.add(new VendingEvent.StashEmptied(slot));
+        }
     }
 
-    private ProductStash getProductStash(final int slot) {
-        return getSlot(slot).inventory;
+    // Es gibt immer nur einen Schreiber: wer den Zähler von 0 hochzählt, schreibt den aktuellen Stand genau einmal.
+    // Kamen währenddessen weitere Änderungen dazu, schreibt der Scheduler erneut, so schreibt unter Dauerlast
+    // kein Kunde für alle anderen mit und der letzte Stand landet trotzdem sicher in der Datei.
+    private void mirrorState() {
+        if (liveState == null || mirrorRequests.getAndIncrement() != 0) {
+            return;
+        }
+        writeMirror();
+    }
+
+    private void writeMirror() {
+        // Alle bis hierhin gezählten Änderungen sind vor dem Lesen des Zählers passiert und damit im geschriebenen Stand
+        final int requests = mirrorRequests.get();
+        try {
+            writeLiveState();
+        } finally {
+            // Auch nach einem Fehler beim Schreiben, sonst bliebe der Zähler stehen und es würde nie wieder gespiegelt
+            if (mirrorRequests.addAndGet(-requests) != 0) {
+                handOffMirror();
+            }
+        }
+    }
+
+    private void handOffMirror() {
+        try {
+            scheduler.execute(this::writeMirror);
+        } catch (final RejectedExecutionException e) {
+            // Scheduler wurde beendet: die nächste Änderung spiegelt wieder selbst
+            mirrorRequests.set(0);
+        }
+    }
+
+    private void writeLiveState() {
+        // Zeitabhängige Preiswechsel spiegelt refreshPrices() an den Abschnittsgrenzen der Preistabelle
+        final LocalTime now = LocalTime.now(clock);
+        final PriceTable prices = priceTable;
+        final int[] currentPrices = new int[slots.size()];
+        final int[] productCounts = new int[slots.size()];
+        for (int i = 0; i < slots.size(); i++) {
+            currentPrices[i] = prices.getPrice(now, i);
+            productCounts[i] = slots.get(i).productCount;
+        }
+        liveState.write(currentPrices, productCounts, cashRegister.getAmounts());
     }
 
     private Slot getSlot(final int slot) {
@@ -69,12 +390,21 @@ public class ArvatoVendingMachine {
     }
 
     private static class Slot {
-        private       int          price;
-        private final ProductStash inventory;
+        private          int           price;
+        private final    ProductStash  inventory;
+        private final    ReentrantLock lock        = new ReentrantLock();
+        private final    ReentrantLock publishLock = new ReentrantLock();
+        // Wird nur unter "lock" geändert und kann ohne Lock gelesen werden (Live-State, Bestandsprüfung)
+        private volatile int           productCount;
 
         public Slot(final ProductStash inventory) {
             this.inventory = inventory;
             this.price = 0;
+            this.productCount = inventory.size();
+        }
+
+        private void updateProductCount() {
+            productCount = inventory.size();
         }
 
         public int getPrice() {
@@ -3,9 +3,12 @@ package de.luvetter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Flow;
 import java.util.stream.Stream;
 
 // TODO: "Kasse" für Geld, dass nicht in Wechselgeld Stash passt
@@ -13,34 +16,100 @@ import java.util.stream.Stream;
 public class CashRegister {
 
     private final Map<EuroCoin, CoinStash> stash = new EnumMap<>(EuroCoin.class);
+    private final VendingEventPublisher    events;
+    // Reihenfolge der CoinLevelChange Events, wird nie unter dem Monitor der Kasse genommen
+    private final Object                   coinEventLock = new Object();
 
     public CashRegister() {
+        this(new VendingEventPublisher());
+    }
+
+    public CashRegister(final VendingEventPublisher events) {
+        if (events == null) {
+            throw new IllegalArgumentException("Bitte geben Sie einen VendingEventPublisher an");
+        }
+        this.events = events;
         for (final EuroCoin coin : EuroCoin.values()) {
             stash.put(coin, new CoinStash(0));
         }
     }
 
+    // Kann kein Wechselgeld gegeben werden, bleibt der Bestand unverändert und der Kunde bekommt seine Münzen zurück
     public EuroCoin[] getChange(final int price, final EuroCoin[] coins) {
+        final Set<EuroCoin> changedCoins = EnumSet.noneOf(EuroCoin.class);
+        final EuroCoin[] change = getChange(price, coins, changedCoins);
+        publishCoinLevels(changedCoins);
+        return change;
+    }
+
+    // Wie getChange(price, coins), die geänderten Münzarten werden aber nur in "changedCoins" gesammelt.
+    // Der Aufrufer veröffentlicht sie mit publishCoinLevels, sobald er selbst keine Locks mehr hält.
+    synchronized EuroCoin[] getChange(final int price, final EuroCoin[] coins, final Set<EuroCoin> changedCoins) {
         final int totalInserted = calculateTotalInserted(coins);
         validateInsertedCoversPrice(price, totalInserted);
-        addCoins(coins);
-        return getChange(totalInserted - price);
+        final Map<EuroCoin, Integer> changeCoins = calculateChange(totalInserted - price, availableWith(coins));
+
+        filterNullValues(coins).forEach(coin -> {
+            stash.get(coin).add(1);
+            changedCoins.add(coin);
+        });
+        final List<EuroCoin> change = new ArrayList<>();
+        for (final Map.Entry<EuroCoin, Integer> entry : changeCoins.entrySet()) {
+            stash.get(entry.getKey()).remove(entry.getValue());
+            changedCoins.add(entry.getKey());
+            for (int i = 0; i < entry.getValue(); i++) {
+                change.add(entry.getKey());
+            }
+        }
+        return change.toArray(new EuroCoin[0]);
+    }
+
+    // Eingeworfene Münzen können direkt als Wechselgeld genutzt werden
+    private Map<EuroCoin, Integer> availableWith(final EuroCoin[] coins) {
+        final Map<EuroCoin, Integer> available = new EnumMap<>(EuroCoin.class);
+        for (final EuroCoin coin : EuroCoin.values()) {
+            available.put(coin, stash.get(coin).getAmount());
+        }
+        filterNullValues(coins).forEach(coin -> available.merge(coin, 1, Integer::sum));
+        return available;
     }
 
     public void addCoins(final EuroCoin[] coins) {
-        for (final EuroCoin coin : coins) {
-            stash.get(coin).add(1);
+        final Set<EuroCoin> changedCoins = EnumSet.noneOf(EuroCoin.class);
+        synchronized (this) {
+            for (final EuroCoin coin : coins) {
+                stash.get(coin).add(1);
+                changedCoins.add(coin);
+            }
+        }
+        publishCoinLevels(changedCoins);
+    }
+
+    // Veröffentlicht den aktuellen Stand der Münzarten außerhalb des Monitors der Kasse. Lesen und Veröffentlichen passiert
+    // unter coinEventLock, so kommt bei parallelen Änderungen immer zuletzt der neueste Stand an.
+    void publishCoinLevels(final Set<EuroCoin> coins) {
+        if (coins.isEmpty() || !events.hasSubscribers()) {
+            return;
+        }
+        synchronized (coinEventLock) {
+            for (final EuroCoin coin : coins) {
+                events.publish(new VendingEvent.CoinLevelChange(coin, getAmount(coin)));
+            }
         }
     }
 
     private int calculateTotalInserted(final EuroCoin[] coins) {
-        return Stream.ofNullable(coins)
-                       .flatMap(Arrays::stream)
-                       .filter(Objects::nonNull)
+        return filterNullValues(coins)
                        .mapToInt(EuroCoin::getCents)
                        .sum();
     }
 
+    private Stream<EuroCoin> filterNullValues(final EuroCoin[] coins) {
+        return Stream.ofNullable(coins)
+                       .flatMap(Arrays::stream)
+                       .filter(Objects::nonNull);
+    }
+
     private void validateInsertedCoversPrice(final int price, final int totalInserted) {
         if (price > 0 && totalInserted == 0) {
             throw new IllegalArgumentException("Bitte werfen Sie Geld ein");
@@ -52,23 +121,20 @@ public class CashRegister {
 
     // TODO: Findet aktuell nur in "einfachen" Fällen eine Lösung
     //      Erkennt z.b. nicht, das für 80 Cent 4x 20 Cent Münzen auch gehen, wenn eine 50 Cent Münze, aber keine 10 Cent Münze vorhanden ist
-    // TODO: Eingeworfene Münzen wieder aus dem Stash entfernen, wenn kein Wechselgeld gegeben werden kann
-    //      --> Hierfür die Münzen garnicht einzahlen, sondern erst schauen, ob davon welche "über" sind, also nicht für den Preis gebraucht werden
-    //          und direkt abziehen. Von dem Rest dürfte dann nix als Wechselgeld über bleiben?
-    private EuroCoin[] getChange(final int targetChangeSum) {
+    // Rechnet nur auf den übergebenen Beständen, der Stash wird hier nicht verändert
+    private Map<EuroCoin, Integer> calculateChange(final int targetChangeSum, final Map<EuroCoin, Integer> available) {
         int currentChangeSum = 0;
-        final List<EuroCoin> change = new ArrayList<>();
+        final Map<EuroCoin, Integer> change = new EnumMap<>(EuroCoin.class);
         for (final EuroCoin coin : EuroCoin.values()) {
             final int remaining = targetChangeSum - currentChangeSum;
             final int maxPossibleCoins = remaining / coin.getCents();
             if (maxPossibleCoins == 0) {
                 continue;
             }
-            final int changeCoins = Math.min(stash.get(coin).getAmount(), maxPossibleCoins);
-            stash.get(coin).remove(changeCoins);
-            for (int i = 0; i < changeCoins; i++) {
-                change.add(coin);
-                currentChangeSum += coin.getCents();
+            final int changeCoins = Math.min(available.get(coin), maxPossibleCoins);
+            if (changeCoins > 0) {
+                change.put(coin, changeCoins);
+                currentChangeSum += changeCoins * coin.getCents();
             }
         }
         if (currentChangeSum != targetChangeSum) {
@@ -77,13 +143,35 @@ public class CashRegister {
             throw new IllegalStateException("Nicht genug Wechselgeld im Automaten");
         }
 
-        return change.toArray(new EuroCoin[0]);
+        return change;
+    }
+
+    public synchronized int getAmount(final EuroCoin coin) {
+        return stash.get(coin).getAmount();
+    }
+
+    // Konsistenter Stand aller Münzarten, in Reihenfolge von EuroCoin.values()
+    synchronized int[] getAmounts() {
+        final int[] amounts = new int[EuroCoin.values().length];
+        for (final EuroCoin coin : EuroCoin.values()) {
+            amounts[coin.ordinal()] = stash.get(coin).getAmount();
+        }
+        return amounts;
+    }
+
+    public Flow.Publisher<VendingEvent> getEvents() {
+        return events;
     }
 
     public int emptyCoinType(final EuroCoin coin) {
         if (coin == null) {
             throw new IllegalArgumentException("Bitte geben Sie eine Münze an");
         }
-        return stash.get(coin).removeAll();
+        final int removed;
+        synchronized (this) {
+            removed = stash.get(coin).removeAll();
+        }
+        publishCoinLevels(EnumSet.of(coin));
+        return removed;
     }
 }
@@ -0,0 +1,42 @@
+package de.luvetter;
+
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.List;
+
+// Paketpreis: liegen alle angegebenen Produkte in einem Warenkorb, kosten sie zusammen "price" statt der Summe der Einzelpreise.
+// Ein Slot kann mehrfach angegeben werden (z.B. zwei Wasser). Das Zeitfenster wird wie bei PricingRule ausgewertet.
+public record ComboPrice(LocalTime from, LocalTime to, List<Integer> slots, int price) {
+
+    public ComboPrice {
+        if (from == null || to == null) {
+            throw new IllegalArgumentException("Bitte geben Sie ein Zeitfenster an");
+        }
+        if (slots == null || slots.size() < 2) {
+            throw new IllegalArgumentException("Ein Paket muss mindestens zwei Produkte enthalten");
+        }
+        if (slots.contains(null)) {
+            throw new IllegalArgumentException("Ein Paket darf keine null Einträge enthalten");
+        }
+        if (price < 0) {
+            throw new IllegalArgumentException("Der Preis muss positiv sein");
+        }
+        slots = List.copyOf(slots);
+    }
+
+    public static ComboPrice of(final LocalTime from, final LocalTime to, final int price, final Integer... slots) {
+        return new ComboPrice(from, to, slots == null ? null : Arrays.asList(slots), price);
+    }
+
+    int fromMinute() {
+        return PricingRule.minuteOfDay(from);
+    }
+
+    int toMinute() {
+        return PricingRule.minuteOfDay(to);
+    }
+
+    boolean isActiveAt(final int minuteOfDay) {
+        return PricingRule.isActiveAt(fromMinute(), toMinute(), minuteOfDay);
+    }
+}
@@ -0,0 +1,48 @@
+package de.luvetter;
+
+import java.util.Arrays;
+import java.util.Map;
+
+// Konsistenter Stand aus der LiveStateRegion, so wie ihn ein LiveStateReader gelesen hat
+public class LiveState {
+
+    private final long                   sequence;
+    private final int[]                  prices;
+    private final int[]                  productCounts;
+    private final Map<EuroCoin, Integer> coinCounts;
+
+    LiveState(final long sequence, final int[] prices, final int[] productCounts, final Map<EuroCoin, Integer> coinCounts) {
+        this.sequence = sequence;
+        this.prices = prices;
+        this.productCounts = productCounts;
+        this.coinCounts = coinCounts;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public int getSlotCount() {
+        return prices.length;
+    }
+
+    public int getPrice(final int slot) {
+        return prices[slot];
+    }
+
+    public int getProductCount(final int slot) {
+        return productCounts[slot];
+    }
+
+    public int getCoinCount(final EuroCoin coin) {
+        return coinCounts.get(coin);
+    }
+
+    @Override
+    public String toString() {
+        return "LiveState[sequence=" + sequence
+               + ", prices=" + Arrays.toString(prices)
+               + ", productCounts=" + Arrays.toString(productCounts)
+               + ", coinCounts=" + coinCounts + "]";
+    }
+}
@@ -0,0 +1,146 @@
+package de.luvetter;
+
+import static de.luvetter.LiveStateRegion.COIN_COUNT_OFFSET;
+import static de.luvetter.LiveStateRegion.COIN_SIZE;
+import static de.luvetter.LiveStateRegion.LAYOUT_VERSION;
+import static de.luvetter.LiveStateRegion.LONG_VIEW;
+import static de.luvetter.LiveStateRegion.MAGIC;
+import static de.luvetter.LiveStateRegion.MAGIC_OFFSET;
+import static de.luvetter.LiveStateRegion.SEQUENCE_OFFSET;
+import static de.luvetter.LiveStateRegion.SLOT_COUNT_OFFSET;
+import static de.luvetter.LiveStateRegion.VERSION_OFFSET;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+
+// Liest die von einer LiveStateRegion geschriebene Datei aus einem beliebigen lokalen Prozess.
+// Nach dem Öffnen läuft jeder Lesevorgang rein über den gemappten Speicher, ohne Syscalls.
+public class LiveStateReader implements AutoCloseable {
+
+    private static final Duration DEFAULT_TIMEOUT = Duration.ofMillis(100);
+
+    private final FileChannel      channel;
+    private final MappedByteBuffer buffer;
+    private final int              slotCount;
+    private final int              coinsOffset;
+
+    private LiveStateReader(final FileChannel channel, final MappedByteBuffer buffer, final int slotCount) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.slotCount = slotCount;
+        this.coinsOffset = LiveStateRegion.coinsOffset(slotCount);
+    }
+
+    public static LiveStateReader open(final Path file) {
+        try {
+            final FileChannel writerChannel = LiveStateRegion.channelOfThisJvm(file);
+            if (writerChannel != null) {
+                return open(file, writerChannel, null);
+            }
+            final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                return open(file, channel, channel);
+            } catch (final RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Live-State Datei " + file + " konnte nicht geöffnet werden", e);
+        }
+    }
+
+    // "ownChannel" ist null, wenn über den Channel eines Schreibers in derselben JVM gelesen wird
+    private static LiveStateReader open(final Path file, final FileChannel channel, final FileChannel ownChannel) throws IOException {
+        final MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, LiveStateRegion.SLOTS_OFFSET);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getInt(MAGIC_OFFSET) != MAGIC) {
+            throw new IllegalStateException("Datei " + file + " ist keine (fertig initialisierte) Live-State Datei");
+        }
+        VarHandle.loadLoadFence();
+        if (header.getInt(VERSION_OFFSET) != LAYOUT_VERSION) {
+            throw new IllegalStateException("Live-State Layout Version " + header.getInt(VERSION_OFFSET) + " wird nicht unterstützt");
+        }
+        if (header.getInt(COIN_COUNT_OFFSET) != EuroCoin.values().length) {
+            throw new IllegalStateException("Live-State Datei enthält " + header.getInt(COIN_COUNT_OFFSET) + " Münzarten, erwartet werden " + EuroCoin.values().length);
+        }
+        final int slotCount = header.getInt(SLOT_COUNT_OFFSET);
+        final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, LiveStateRegion.regionSize(slotCount, EuroCoin.values().length));
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return new LiveStateReader(ownChannel, buffer, slotCount);
+    }
+
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    public LiveState read() {
+        return read(DEFAULT_TIMEOUT);
+    }
+
+    // Bleibt die Sequenz länger als "timeout" ungerade (z.B. weil der Schreiber mitten im Schreiben abgestürzt ist)
+    // oder ändert sie sich ständig, wird nicht endlos gewartet, sondern eine IllegalStateException geworfen.
+    public LiveState read(final Duration timeout) {
+        if (timeout == null || timeout.isNegative()) {
+            throw new IllegalArgumentException("Bitte geben Sie einen positiven Timeout an");
+        }
+        long deadline = 0;
+        final int[] prices = new int[slotCount];
+        final int[] productCounts = new int[slotCount];
+        final int[] coinCounts = new int[EuroCoin.values().length];
+        long sequence;
+        for (int attempt = 0; ; attempt++) {
+            // Zeit erst nach dem ersten Fehlversuch messen, damit ein ungestörter Lesevorgang ohne Syscall auskommt
+            if (attempt == 1) {
+                deadline = System.nanoTime() + timeout.toNanos();
+            }
+            if (attempt > 0) {
+                if (attempt > 1 && System.nanoTime() - deadline > 0) {
+                    throw new IllegalStateException("Kein konsistenter Live-State innerhalb von " + timeout.toMillis() + " ms lesbar, der Schreiber hängt oder ist abgestürzt");
+                }
+                Thread.onSpinWait();
+            }
+            sequence = (long) LONG_VIEW.getAcquire(buffer, SEQUENCE_OFFSET);
+            if ((sequence & 1) != 0) {
+                continue;
+            }
+            for (int slot = 0; slot < slotCount; slot++) {
+                final int offset = LiveStateRegion.slotOffset(slot);
+                prices[slot] = buffer.getInt(offset);
+                productCounts[slot] = buffer.getInt(offset + 4);
+            }
+            for (int i = 0; i < coinCounts.length; i++) {
+                coinCounts[i] = buffer.getInt(coinsOffset + i * COIN_SIZE);
+            }
+            VarHandle.loadLoadFence();
+            if ((long) LONG_VIEW.getOpaque(buffer, SEQUENCE_OFFSET) == sequence) {
+                break;
+            }
+        }
+        final Map<EuroCoin, Integer> coins = new EnumMap<>(EuroCoin.class);
+        for (final EuroCoin coin : EuroCoin.values()) {
+            coins.put(coin, coinCounts[coin.ordinal()]);
+        }
+        return new LiveState(sequence, prices, productCounts, coins);
+    }
+
+    @Override
+    public void close() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package de.luvetter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+// Spiegelt Preise, Füllstände und Münzbestände in eine memory-mapped Datei mit festem Layout,
+// damit andere lokale Prozesse (Display, Telemetrie, ...) ohne IPC mitlesen können.
+//
+// Layout (little endian):
+//   0  int  MAGIC
+//   4  int  LAYOUT_VERSION
+//   8  int  Anzahl Slots
+//  12  int  Anzahl Münzarten
+//  16  long Sequenz (Seqlock: ungerade = Schreibvorgang läuft)
+//  24  je Slot:     int Preis, int Anzahl Produkte
+//  ..  je EuroCoin: int Anzahl Münzen (in Reihenfolge von EuroCoin.values())
+public class LiveStateRegion implements AutoCloseable {
+
+    static final int MAGIC          = 0x41564D31; // "AVM1"
+    static final int LAYOUT_VERSION = 1;
+
+    static final int MAGIC_OFFSET      = 0;
+    static final int VERSION_OFFSET    = 4;
+    static final int SLOT_COUNT_OFFSET = 8;
+    static final int COIN_COUNT_OFFSET = 12;
+    static final int SEQUENCE_OFFSET   = 16;
+    static final int SLOTS_OFFSET      = 24;
+    static final int SLOT_SIZE         = 8;
+    static final int COIN_SIZE         = 4;
+
+    static final VarHandle LONG_VIEW = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    // Dateien, die diese JVM gerade beschreibt, geschützt durch den Monitor der Map
+    private static final Map<Path, FileChannel> CHANNELS_OF_THIS_JVM = new HashMap<>();
+
+    private final Path             key;
+    private final FileChannel      channel;
+    private final FileLock         lock;
+    private final MappedByteBuffer buffer;
+    private final int              slotCount;
+    private       long             sequence;
+
+    private LiveStateRegion(final Path key, final FileChannel channel, final FileLock lock, final MappedByteBuffer buffer, final int slotCount) {
+        this.key = key;
+        this.channel = channel;
+        this.lock = lock;
+        this.buffer = buffer;
+        this.slotCount = slotCount;
+    }
+
+    // Es darf immer nur einen Schreiber geben, auch über Prozessgrenzen hinweg. Daher wird die Datei exklusiv gesperrt,
+    // bis die Region geschlossen wird.
+    public static LiveStateRegion create(final Path file, final int slotCount) {
+        if (slotCount < 1) {
+            throw new IllegalArgumentException("Die Anzahl der Slots muss mindestens 1 sein");
+        }
+        try {
+            final Path key = registryKey(file);
+            synchronized (CHANNELS_OF_THIS_JVM) {
+                // Vor dem Öffnen prüfen: Schließt diese JVM irgendeinen Channel auf die Datei, gibt sie auch den Lock frei
+                if (CHANNELS_OF_THIS_JVM.containsKey(key)) {
+                    throw alreadyWritten(file);
+                }
+                final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                try {
+                    final LiveStateRegion region = create(file, key, channel, slotCount);
+                    CHANNELS_OF_THIS_JVM.put(key, channel);
+                    return region;
+                } catch (final IOException | RuntimeException e) {
+                    channel.close();
+                    throw e;
+                }
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Live-State Datei " + file + " konnte nicht angelegt werden", e);
+        }
+    }
+
+    private static LiveStateRegion create(final Path file, final Path key, final FileChannel channel, final int slotCount) throws IOException {
+        final FileLock lock = channel.tryLock();
+        if (lock == null) {
+            throw alreadyWritten(file);
+        }
+        final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, regionSize(slotCount, EuroCoin.values().length));
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        final LiveStateRegion region = new LiveStateRegion(key, channel, lock, buffer, slotCount);
+        region.writeHeader();
+        return region;
+    }
+
+    private static IllegalStateException alreadyWritten(final Path file) {
+        return new IllegalStateException("Live-State Datei " + file + " wird bereits von einem anderen Automaten beschrieben");
+    }
+
+    // Liefert den Channel, falls diese JVM die Datei gerade selbst beschreibt. Leser in derselben JVM mappen darüber,
+    // statt einen eigenen Channel zu öffnen und beim Schließen den Lock des Schreibers mit freizugeben.
+    static FileChannel channelOfThisJvm(final Path file) throws IOException {
+        final Path key = registryKey(file);
+        synchronized (CHANNELS_OF_THIS_JVM) {
+            return CHANNELS_OF_THIS_JVM.get(key);
+        }
+    }
+
+    private static Path registryKey(final Path file) throws IOException {
+        if (Files.exists(file)) {
+            return file.toRealPath();
+        }
+        final Path absolute = file.toAbsolutePath();
+        final Path parent = absolute.getParent();
+        return parent != null && Files.exists(parent) ? parent.toRealPath().resolve(absolute.getFileName()) : absolute.normalize();
+    }
+
+    static long regionSize(final int slotCount, final int coinCount) {
+        return coinsOffset(slotCount) + (long) coinCount * COIN_SIZE;
+    }
+
+    static int slotOffset(final int slot) {
+        return SLOTS_OFFSET + slot * SLOT_SIZE;
+    }
+
+    static int coinsOffset(final int slotCount) {
+        return slotOffset(slotCount);
+    }
+
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    // Seqlock mit genau einem Schreiber: Sequenz auf ungerade setzen, Daten schreiben, Sequenz auf gerade setzen.
+    // Leser verwerfen ihren Stand, wenn die Sequenz ungerade war oder sich währenddessen geändert hat.
+    // Der komplette Stand wird unter einem Lock geschrieben, Münzbestände in Reihenfolge von EuroCoin.values().
+    synchronized void write(final int[] prices, final int[] productCounts, final int[] coinCounts) {
+        if (prices.length != slotCount || productCounts.length != slotCount || coinCounts.length != EuroCoin.values().length) {
+            throw new IllegalArgumentException("Der Stand passt nicht zum Layout der Live-State Datei");
+        }
+        sequence++;
+        LONG_VIEW.setOpaque(buffer, SEQUENCE_OFFSET, sequence);
+        VarHandle.storeStoreFence();
+        for (int slot = 0; slot < slotCount; slot++) {
+            final int offset = slotOffset(slot);
+            buffer.putInt(offset, prices[slot]);
+            buffer.putInt(offset + 4, productCounts[slot]);
+        }
+        final int coinsOffset = coinsOffset(slotCount);
+        for (int i = 0; i < coinCounts.length; i++) {
+            buffer.putInt(coinsOffset + i * COIN_SIZE, coinCounts[i]);
+        }
+        sequence++;
+        LONG_VIEW.setRelease(buffer, SEQUENCE_OFFSET, sequence);
+    }
+
+    private void writeHeader() {
+        // Eine evtl. vorhandene Datei wird neu initialisiert, die Sequenz beginnt wieder bei 0
+        buffer.putInt(MAGIC_OFFSET, 0);
+        VarHandle.storeStoreFence();
+        LONG_VIEW.setRelease(buffer, SEQUENCE_OFFSET, 0L);
+        buffer.putInt(VERSION_OFFSET, LAYOUT_VERSION);
+        buffer.putInt(SLOT_COUNT_OFFSET, slotCount);
+        buffer.putInt(COIN_COUNT_OFFSET, EuroCoin.values().length);
+        write(new int[slotCount], new int[slotCount], new int[EuroCoin.values().length]);
+        VarHandle.storeStoreFence();
+        // MAGIC zuletzt, damit Leser keinen halb initialisierten Header akzeptieren
+        buffer.putInt(MAGIC_OFFSET, MAGIC);
+    }
+
+    @Override
+    public void close() {
+        synchronized (CHANNELS_OF_THIS_JVM) {
+            CHANNELS_OF_THIS_JVM.remove(key, channel);
+            try (channel) {
+                lock.release();
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
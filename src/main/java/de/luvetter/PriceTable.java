@@ -0,0 +1,182 @@
+package de.luvetter;
+
+import java.time.Duration;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+// Vorberechnete effektive Preise je Zeitabschnitt und Slot.
+// Die Grenzen aller Regeln teilen den Tag in Abschnitte, in denen dieselben Regeln gelten.
+// Eine Preisabfrage ist damit nur ein Lookup Minute -> Abschnitt -> Preis, Regeln werden nur beim Kompilieren ausgewertet.
+final class PriceTable {
+
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    private final int[]                   segmentStarts;
+    private final int[]                   segmentOfMinute;
+    private final List<List<PricingRule>> rulesOfSegment;
+    private final List<List<ComboPrice>>  comboPricesOfSegment;
+    private final int[][]                 prices;
+    private final Combo[][]               combos;
+
+    private PriceTable(final int[] segmentStarts, final int[] segmentOfMinute, final List<List<PricingRule>> rulesOfSegment,
+                       final List<List<ComboPrice>> comboPricesOfSegment, final int[][] prices) {
+        this.segmentStarts = segmentStarts;
+        this.segmentOfMinute = segmentOfMinute;
+        this.rulesOfSegment = rulesOfSegment;
+        this.comboPricesOfSegment = comboPricesOfSegment;
+        this.prices = prices;
+        this.combos = new Combo[prices.length][];
+        for (int segment = 0; segment < prices.length; segment++) {
+            combos[segment] = compileCombos(comboPricesOfSegment.get(segment), prices[segment]);
+        }
+    }
+
+    static PriceTable compile(final List<PricingRule> rules, final List<ComboPrice> comboPrices, final int[] basePrices) {
+        final TreeSet<Integer> boundaries = new TreeSet<>();
+        boundaries.add(0);
+        for (final PricingRule rule : rules) {
+            validateSlots(rule.slots(), basePrices.length);
+            addBoundaries(boundaries, rule.fromMinute(), rule.toMinute());
+        }
+        for (final ComboPrice comboPrice : comboPrices) {
+            validateSlots(comboPrice.slots(), basePrices.length);
+            addBoundaries(boundaries, comboPrice.fromMinute(), comboPrice.toMinute());
+        }
+        final int[] starts = boundaries.stream().mapToInt(Integer::intValue).toArray();
+
+        final int[] segmentOfMinute = new int[MINUTES_PER_DAY];
+        final List<List<PricingRule>> rulesOfSegment = new ArrayList<>(starts.length);
+        final List<List<ComboPrice>> comboPricesOfSegment = new ArrayList<>(starts.length);
+        final int[][] prices = new int[starts.length][];
+        for (int segment = 0; segment < starts.length; segment++) {
+            final int end = segment + 1 < starts.length ? starts[segment + 1] : MINUTES_PER_DAY;
+            Arrays.fill(segmentOfMinute, starts[segment], end, segment);
+
+            final int start = starts[segment];
+            final List<PricingRule> active = rules.stream().filter(rule -> rule.isActiveAt(start)).toList();
+            rulesOfSegment.add(active);
+            comboPricesOfSegment.add(comboPrices.stream().filter(comboPrice -> comboPrice.isActiveAt(start)).toList());
+            prices[segment] = new int[basePrices.length];
+            for (int slot = 0; slot < basePrices.length; slot++) {
+                prices[segment][slot] = effectivePrice(active, slot, basePrices[slot]);
+            }
+        }
+        return new PriceTable(starts, segmentOfMinute, List.copyOf(rulesOfSegment), List.copyOf(comboPricesOfSegment), prices);
+    }
+
+    // Ganztägige Regeln gelten in jedem Abschnitt und teilen den Tag daher nicht
+    private static void addBoundaries(final TreeSet<Integer> boundaries, final int fromMinute, final int toMinute) {
+        if (fromMinute != toMinute) {
+            boundaries.add(fromMinute);
+            boundaries.add(toMinute);
+        }
+    }
+
+    int getPrice(final LocalTime time, final int slot) {
+        return prices[segmentOfMinute[PricingRule.minuteOfDay(time)]][slot];
+    }
+
+    // Gesamtpreis eines Warenkorbs (Slot -> Anzahl): erst die Pakete, die übrigen Produkte zum Einzelpreis
+    // TODO: Pakete werden nach größter Ersparnis gewählt, bei sich überschneidenden Paketen ist das nicht immer der günstigste Gesamtpreis
+    int getTotalPrice(final LocalTime time, final Map<Integer, Integer> quantities) {
+        final int segment = segmentOfMinute[PricingRule.minuteOfDay(time)];
+        Map<Integer, Integer> remaining = quantities;
+        int totalPrice = 0;
+        for (final Combo combo : combos[segment]) {
+            final int times = combo.timesContainedIn(remaining);
+            if (times == 0) {
+                continue;
+            }
+            if (remaining == quantities) {
+                remaining = new HashMap<>(quantities);
+            }
+            for (int i = 0; i < combo.slots().length; i++) {
+                remaining.merge(combo.slots()[i], -times * combo.quantities()[i], Integer::sum);
+            }
+            totalPrice += times * combo.price();
+        }
+        for (final Map.Entry<Integer, Integer> entry : remaining.entrySet()) {
+            totalPrice += prices[segment][entry.getKey()] * entry.getValue();
+        }
+        return totalPrice;
+    }
+
+    // Ohne Regeln oder mit ganztägigen Regeln gibt es nur einen Abschnitt, die Preise ändern sich dann nie von selbst
+    boolean hasTimeDependentPrices() {
+        return segmentStarts.length > 1;
+    }
+
+    // Zeit bis zum Beginn des nächsten Abschnitts, ab Mitternacht beginnt wieder der erste Abschnitt
+    Duration untilNextSegment(final LocalTime time) {
+        final int segment = segmentOfMinute[PricingRule.minuteOfDay(time)];
+        final int nextStart = segment + 1 < segmentStarts.length ? segmentStarts[segment + 1] : MINUTES_PER_DAY;
+        return Duration.ofSeconds(nextStart * 60L - time.toSecondOfDay()).minusNanos(time.getNano());
+    }
+
+    // Nur die Spalte des geänderten Slots wird neu berechnet, die Regeln je Abschnitt bleiben erhalten
+    PriceTable withBasePrice(final int slot, final int basePrice) {
+        final int[][] updated = new int[prices.length][];
+        for (int segment = 0; segment < prices.length; segment++) {
+            updated[segment] = prices[segment].clone();
+            updated[segment][slot] = effectivePrice(rulesOfSegment.get(segment), slot, basePrice);
+        }
+        return new PriceTable(segmentStarts, segmentOfMinute, rulesOfSegment, comboPricesOfSegment, updated);
+    }
+
+    // Regeln werden in der angegebenen Reihenfolge nacheinander angewendet
+    private static int effectivePrice(final List<PricingRule> rules, final int slot, final int basePrice) {
+        int price = basePrice;
+        for (final PricingRule rule : rules) {
+            if (rule.appliesTo(slot)) {
+                price = rule.apply(price);
+            }
+        }
+        return price;
+    }
+
+    // Pakete, die zu den Einzelpreisen des Abschnitts nichts sparen, fallen weg, der Rest wird nach Ersparnis sortiert
+    private static Combo[] compileCombos(final List<ComboPrice> comboPrices, final int[] prices) {
+        final List<Combo> combos = new ArrayList<>();
+        for (final ComboPrice comboPrice : comboPrices) {
+            final Map<Integer, Integer> quantities = new TreeMap<>();
+            comboPrice.slots().forEach(slot -> quantities.merge(slot, 1, Integer::sum));
+            final int[] slots = quantities.keySet().stream().mapToInt(Integer::intValue).toArray();
+            final int[] counts = quantities.values().stream().mapToInt(Integer::intValue).toArray();
+            int singlePrice = 0;
+            for (int i = 0; i < slots.length; i++) {
+                singlePrice += prices[slots[i]] * counts[i];
+            }
+            if (singlePrice > comboPrice.price()) {
+                combos.add(new Combo(slots, counts, comboPrice.price(), singlePrice - comboPrice.price()));
+            }
+        }
+        combos.sort(Comparator.comparingInt(Combo::savings).reversed());
+        return combos.toArray(new Combo[0]);
+    }
+
+    private static void validateSlots(final Iterable<Integer> slots, final int slotCount) {
+        for (final int slot : slots) {
+            if (slot < 0 || slot >= slotCount) {
+                throw new IllegalArgumentException("Bitte wähle einen Slot zwischen 0 und " + (slotCount - 1));
+            }
+        }
+    }
+
+    private record Combo(int[] slots, int[] quantities, int price, int savings) {
+
+        int timesContainedIn(final Map<Integer, Integer> cart) {
+            int times = Integer.MAX_VALUE;
+            for (int i = 0; i < slots.length; i++) {
+                times = Math.min(times, cart.getOrDefault(slots[i], 0) / quantities[i]);
+            }
+            return times;
+        }
+    }
+}
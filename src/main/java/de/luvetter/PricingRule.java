@@ -0,0 +1,78 @@
+package de.luvetter;
+
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.Set;
+
+// Deklarative Preisregel: gilt von "from" (inklusive) bis "to" (exklusive) für die angegebenen Slots.
+// Ist "from" gleich "to", gilt die Regel den ganzen Tag, ist "from" größer als "to", geht sie über Mitternacht.
+// Ohne Slots gilt die Regel für alle Slots. Zeiten werden auf Minuten genau ausgewertet.
+public record PricingRule(LocalTime from, LocalTime to, Set<Integer> slots, Adjustment adjustment, int value) {
+
+    public enum Adjustment {
+        PERCENT,
+        CENTS
+    }
+
+    public PricingRule {
+        if (from == null || to == null) {
+            throw new IllegalArgumentException("Bitte geben Sie ein Zeitfenster an");
+        }
+        if (slots == null) {
+            throw new IllegalArgumentException("Slots dürfen nicht null sein");
+        }
+        if (adjustment == null) {
+            throw new IllegalArgumentException("Bitte geben Sie eine Preisanpassung an");
+        }
+        if (adjustment == Adjustment.PERCENT && value < -100) {
+            throw new IllegalArgumentException("Ein Rabatt von mehr als 100 Prozent ist nicht möglich");
+        }
+        slots = Set.copyOf(slots);
+    }
+
+    public static PricingRule percent(final LocalTime from, final LocalTime to, final int percent, final Integer... slots) {
+        return new PricingRule(from, to, Set.copyOf(Arrays.asList(slots)), Adjustment.PERCENT, percent);
+    }
+
+    public static PricingRule cents(final LocalTime from, final LocalTime to, final int cents, final Integer... slots) {
+        return new PricingRule(from, to, Set.copyOf(Arrays.asList(slots)), Adjustment.CENTS, cents);
+    }
+
+    int fromMinute() {
+        return minuteOfDay(from);
+    }
+
+    int toMinute() {
+        return minuteOfDay(to);
+    }
+
+    boolean isActiveAt(final int minuteOfDay) {
+        return isActiveAt(fromMinute(), toMinute(), minuteOfDay);
+    }
+
+    static boolean isActiveAt(final int fromMinute, final int toMinute, final int minuteOfDay) {
+        if (fromMinute == toMinute) {
+            return true;
+        }
+        if (fromMinute < toMinute) {
+            return minuteOfDay >= fromMinute && minuteOfDay < toMinute;
+        }
+        return minuteOfDay >= fromMinute || minuteOfDay < toMinute;
+    }
+
+    boolean appliesTo(final int slot) {
+        return slots.isEmpty() || slots.contains(slot);
+    }
+
+    int apply(final int price) {
+        final int adjusted = switch (adjustment) {
+            case PERCENT -> (int) ((price * (100L + value) + 50) / 100);
+            case CENTS -> price + value;
+        };
+        return Math.max(0, adjusted);
+    }
+
+    static int minuteOfDay(final LocalTime time) {
+        return time.getHour() * 60 + time.getMinute();
+    }
+}
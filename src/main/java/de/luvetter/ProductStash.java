@@ -20,6 +20,10 @@ public class ProductStash {
         return products.stream().toList();
     }
 
+    public int size() {
+        return products.size();
+    }
+
     public boolean isEmpty() {
         return products.isEmpty();
     }
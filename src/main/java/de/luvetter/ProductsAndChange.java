@@ -0,0 +1,16 @@
+package de.luvetter;
+
+import java.util.List;
+
+public record ProductsAndChange(List<Object> products, EuroCoin... change) {
+    public ProductsAndChange {
+        if (products == null || products.isEmpty()) {
+            throw new IllegalArgumentException("Produkte dürfen nicht leer sein");
+        }
+
+        if (change == null) {
+            throw new IllegalArgumentException("Wechselgeld darf nicht null sein");
+        }
+        products = List.copyOf(products);
+    }
+}
@@ -0,0 +1,24 @@
+package de.luvetter;
+
+// Änderungen am Automaten, die über den VendingEventPublisher verteilt werden.
+// Jedes Event trägt den vollständigen neuen Stand, damit zusammengefasste Events nichts verlieren.
+public sealed interface VendingEvent {
+
+    record Sale(int slot, Object product, int remainingProducts) implements VendingEvent {
+    }
+
+    record Restock(int slot, int products) implements VendingEvent {
+    }
+
+    record ProductsRemoved(int slot, int products) implements VendingEvent {
+    }
+
+    record PriceChange(int slot, int price) implements VendingEvent {
+    }
+
+    record CoinLevelChange(EuroCoin coin, int amount) implements VendingEvent {
+    }
+
+    record StashEmptied(int slot) implements VendingEvent {
+    }
+}
@@ -0,0 +1,168 @@
+package de.luvetter;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Verteilt VendingEvents an beliebig viele Subscriber.
+// Statt einer unbegrenzten Queue hält jeder Subscriber nur den letzten Stand je Slot bzw. Münze vor,
+// langsame Subscriber bekommen also zusammengefasste Events.
+public class VendingEventPublisher implements Flow.Publisher<VendingEvent> {
+
+    private final List<CoalescingSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final Executor                     executor;
+
+    public VendingEventPublisher() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public VendingEventPublisher(final Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Bitte geben Sie einen Executor an");
+        }
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(final Flow.Subscriber<? super VendingEvent> subscriber) {
+        Objects.requireNonNull(subscriber, "Subscriber darf nicht null sein");
+        final CoalescingSubscription subscription = new CoalescingSubscription(subscriber);
+        subscriptions.add(subscription);
+        subscriber.onSubscribe(subscription);
+    }
+
+    // Aufrufer prüfen das vor dem Erzeugen von Events, damit ohne Subscriber keine Kosten entstehen
+    public boolean hasSubscribers() {
+        return !subscriptions.isEmpty();
+    }
+
+    public void publish(final VendingEvent event) {
+        for (final CoalescingSubscription subscription : subscriptions) {
+            subscription.offer(event);
+        }
+    }
+
+    private static Object coalescingKey(final VendingEvent event) {
+        if (event instanceof VendingEvent.PriceChange priceChange) {
+            return new PriceKey(priceChange.slot());
+        }
+        if (event instanceof VendingEvent.CoinLevelChange coinLevelChange) {
+            return coinLevelChange.coin();
+        }
+        if (event instanceof VendingEvent.Sale sale) {
+            return new InventoryKey(sale.slot());
+        }
+        if (event instanceof VendingEvent.Restock restock) {
+            return new InventoryKey(restock.slot());
+        }
+        if (event instanceof VendingEvent.ProductsRemoved productsRemoved) {
+            return new InventoryKey(productsRemoved.slot());
+        }
+        return new InventoryKey(((VendingEvent.StashEmptied) event).slot());
+    }
+
+    private record InventoryKey(int slot) {
+    }
+
+    private record PriceKey(int slot) {
+    }
+
+    private class CoalescingSubscription implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super VendingEvent> subscriber;
+        private final Map<Object, VendingEvent>             pending = new LinkedHashMap<>();
+        private final AtomicLong                            demand  = new AtomicLong();
+        private final AtomicInteger                         wip     = new AtomicInteger();
+        private volatile boolean                            cancelled;
+        private volatile Throwable                          error;
+        private          boolean                            errorSignalled;
+
+        CoalescingSubscription(final Flow.Subscriber<? super VendingEvent> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        void offer(final VendingEvent event) {
+            final Object key = coalescingKey(event);
+            synchronized (pending) {
+                // Neu einsortieren, damit die Reihenfolge der letzten Änderung entspricht
+                pending.remove(key);
+                pending.put(key, event);
+            }
+            scheduleDrain();
+        }
+
+        @Override
+        public void request(final long n) {
+            if (n <= 0) {
+                // onError läuft wie onNext über drain(), damit Signale an den Subscriber nie überlappen
+                error = new IllegalArgumentException("Es müssen mindestens 1 Event angefordert werden, angefordert wurden " + n);
+                cancel();
+                scheduleDrain();
+                return;
+            }
+            demand.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            scheduleDrain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+            synchronized (pending) {
+                pending.clear();
+            }
+        }
+
+        private void scheduleDrain() {
+            if (wip.getAndIncrement() == 0) {
+                executor.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            int missed = 1;
+            do {
+                if (error != null && !errorSignalled) {
+                    errorSignalled = true;
+                    subscriber.onError(error);
+                }
+                while (!cancelled && demand.get() > 0) {
+                    final VendingEvent next = poll();
+                    if (next == null) {
+                        break;
+                    }
+                    demand.decrementAndGet();
+                    try {
+                        subscriber.onNext(next);
+                    } catch (final RuntimeException e) {
+                        error = e;
+                        errorSignalled = true;
+                        cancel();
+                        subscriber.onError(e);
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private VendingEvent poll() {
+            synchronized (pending) {
+                final Iterator<VendingEvent> iterator = pending.values().iterator();
+                if (!iterator.hasNext()) {
+                    return null;
+                }
+                final VendingEvent next = iterator.next();
+                iterator.remove();
+                return next;
+            }
+        }
+    }
+}
@@ -3,15 +3,34 @@ package de.luvetter;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import org.assertj.core.api.InstanceOfAssertFactories;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Named;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.EnumSource;
 import org.junit.jupiter.params.provider.MethodSource;
@@ -162,6 +181,7 @@ class ArvatoVendingMachineTest {
                     .isInstanceOf(IllegalStateException.class)
                     .hasMessageContaining("Nicht genug Wechselgeld im Automaten");
             assertThat(vendingMachine.listProducts(0)).containsExactly("Coke");
+            assertThat(vendingMachine.emptyCoinType(EuroCoin.TWO_EURO)).isEqualTo(0);
         }
 
         @Test
@@ -201,6 +221,171 @@ class ArvatoVendingMachineTest {
         }
     }
 
+    @Nested
+    class BuyCart {
+
+        @Test
+        void should_return_all_products_in_cart_order() {
+            vendingMachine.addProducts(0, "Coke", "Coke");
+            vendingMachine.addProducts(1, "Chips");
+            vendingMachine.setPrice(0, 120);
+            vendingMachine.setPrice(1, 160);
+
+            final ProductsAndChange result = vendingMachine.buy(List.of(1, 0, 0), EuroCoin.TWO_EURO, EuroCoin.TWO_EURO);
+
+            assertThat(result.products()).containsExactly("Chips", "Coke", "Coke");
+            assertThat(result.change()).isEmpty();
+            assertThat(vendingMachine.listProducts(0)).isEmpty();
+            assertThat(vendingMachine.listProducts(1)).isEmpty();
+        }
+
+        @Test
+        void should_compute_change_once_for_total_price() {
+            vendingMachine.addProducts(0, "Coke");
+            vendingMachine.addProducts(1, "Chips");
+            vendingMachine.setPrice(0, 120);
+            vendingMachine.setPrice(1, 50);
+            vendingMachine.addCoins(EuroCoin.TWENTY_CENTS, EuroCoin.TEN_CENTS);
+
+            final ProductsAndChange result = vendingMachine.buy(List.of(0, 1), EuroCoin.TWO_EURO);
+
+            assertThat(result.change()).containsExactlyInAnyOrder(EuroCoin.TWENTY_CENTS, EuroCoin.TEN_CENTS);
+        }
+
+        @Test
+        void should_not_dispense_anything_if_one_slot_is_empty() {
+            vendingMachine.addProducts(0, "Coke");
+            vendingMachine.setPrice(0, 120);
+
+            assertThatThrownBy(() -> vendingMachine.buy(List.of(0, 1), EuroCoin.TWO_EURO))
+                    .isInstanceOf(IllegalStateException.class)
+                    .hasMessageContaining("Slot 1 ist leer");
+            assertThat(vendingMachine.listProducts(0)).containsExactly("Coke");
+            assertThat(vendingMachine.emptyCoinType(EuroCoin.TWO_EURO)).isEqualTo(0);
+        }
+
+        @Test
+        void should_not_dispense_anything_if_slot_has_fewer_products_than_in_cart() {
+            vendingMachine.addProducts(0, "Coke");
+
+            assertThatThrownBy(() -> vendingMachine.buy(List.of(0, 0)))
+                    .isInstanceOf(IllegalStateException.class)
+                    .hasMessageContaining("Slot 0 enthält nur 1 Produkte, im Warenkorb sind 2");
+            assertThat(vendingMachine.listProducts(0)).containsExactly("Coke");
+        }
+
+        @Test
+        void should_neither_dispense_nor_keep_money_if_change_cannot_be_returned() {
+            vendingMachine.addProducts(0, "Coke");
+            vendingMachine.addProducts(1, "Chips");
+            vendingMachine.setPrice(0, 60);
+            vendingMachine.setPrice(1, 60);
+            vendingMachine.addCoins(EuroCoin.FIFTY_CENTS);
+
+            assertThatThrownBy(() -> vendingMachine.buy(List.of(0, 1), EuroCoin.TWO_EURO))
+                    .isInstanceOf(IllegalStateException.class)
+                    .hasMessageContaining("Nicht genug Wechselgeld im Automaten");
+            assertThat(vendingMachine.listProducts(0)).containsExactly("Coke");
+            assertThat(vendingMachine.listProducts(1)).containsExactly("Chips");
+            assertThat(vendingMachine.emptyCoinType(EuroCoin.TWO_EURO)).isEqualTo(0);
+            assertThat(vendingMachine.emptyCoinType(EuroCoin.FIFTY_CENTS)).isEqualTo(1);
+        }
+
+        @Test
+        void should_throw_IllegalArgumentException_if_coins_do_not_cover_total_price() {
+            vendingMachine.addProducts(0, "Coke");
+            vendingMachine.addProducts(1, "Chips");
+            vendingMachine.setPrice(0, 120);
+            vendingMachine.setPrice(1, 100);
+
+            assertThatThrownBy(() -> vendingMachine.buy(List.of(0, 1), EuroCoin.TWO_EURO))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessageContaining("kostet 220 Cent, aber es wurden nur 200 Cent eingeworfen");
+        }
+
+        @NullAndEmptySource
+        @ParameterizedTest
+        void should_throw_IllegalArgumentException_if_cart_is_empty(final List<Integer> cart) {
+            assertThatThrownBy(() -> vendingMachine.buy(cart, EuroCoin.TWO_EURO))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessageContaining("Der Warenkorb muss mindestens ein Produkt enthalten");
+        }
+
+        @ValueSource(ints = {-1, NUMBER_OF_SLOTS})
+        @ParameterizedTest
+        void should_throw_IllegalArgumentException_for_invalid_slot(final int slot) {
+            vendingMachine.addProducts(0, "Coke");
+
+            assertThatThrownBy(() -> vendingMachine.buy(List.of(0, slot), EuroCoin.TWO_EURO))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessageContaining("Bitte wähle einen Slot zwischen 0 und 8");
+            assertThat(vendingMachine.listProducts(0)).containsExactly("Coke");
+        }
+
+        @Test
+        void concurrent_carts_with_shared_slots_should_neither_deadlock_nor_lose_products_or_coins(@TempDir final Path tempDir) throws Exception {
+            final int cartsPerDirection = 500;
+            final Path file = tempDir.resolve("live-state");
+            try (LiveStateRegion region = LiveStateRegion.create(file, NUMBER_OF_SLOTS);
+                 LiveStateReader reader = LiveStateReader.open(file)) {
+                final ArvatoVendingMachine vendingMachine = new ArvatoVendingMachine(createDefaultInventories(), region);
+                vendingMachine.setPrice(0, 120);
+                vendingMachine.setPrice(1, 70);
+                vendingMachine.setPrice(2, 80);
+                for (int i = 0; i < cartsPerDirection; i++) {
+                    vendingMachine.addProducts(0, "Coke " + i);
+                    vendingMachine.addProducts(1, "Chips " + i);
+                    vendingMachine.addProducts(2, "Water " + i, "Water " + i + "b");
+                    // Wechselgeld für die Warenkörbe aus Slot 2 und 1, die 150 Cent kosten
+                    vendingMachine.addCoins(EuroCoin.FIFTY_CENTS);
+                }
+
+                final ExecutorService executor = Executors.newFixedThreadPool(4);
+                final List<Future<ProductsAndChange>> results = new ArrayList<>();
+                try {
+                    final CountDownLatch start = new CountDownLatch(1);
+                    for (int i = 0; i < cartsPerDirection; i++) {
+                        results.add(executor.submit(() -> {
+                            start.await();
+                            return vendingMachine.buy(List.of(0, 2), EuroCoin.TWO_EURO);
+                        }));
+                        results.add(executor.submit(() -> {
+                            start.await();
+                            return vendingMachine.buy(List.of(2, 1), EuroCoin.TWO_EURO);
+                        }));
+                    }
+                    start.countDown();
+
+                    int returnedFiftyCents = 0;
+                    for (final Future<ProductsAndChange> result : results) {
+                        final ProductsAndChange productsAndChange = result.get(30, TimeUnit.SECONDS);
+                        assertThat(productsAndChange.products()).hasSize(2);
+                        returnedFiftyCents += productsAndChange.change().length;
+                    }
+                    assertThat(returnedFiftyCents).isEqualTo(cartsPerDirection);
+                } finally {
+                    executor.shutdownNow();
+                }
+
+                // Der letzte Spiegelstand kann von einem anderen Thread geschrieben werden, der noch nicht fertig ist
+                final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                LiveState state = reader.read();
+                while (state.getCoinCount(EuroCoin.TWO_EURO) != 2 * cartsPerDirection && System.nanoTime() < deadline) {
+                    Thread.onSpinWait();
+                    state = reader.read();
+                }
+                for (int slot = 0; slot < 3; slot++) {
+                    assertThat(vendingMachine.listProducts(slot)).isEmpty();
+                    assertThat(state.getProductCount(slot)).isZero();
+                }
+                assertThat(state.getCoinCount(EuroCoin.TWO_EURO)).isEqualTo(2 * cartsPerDirection);
+                assertThat(state.getCoinCount(EuroCoin.FIFTY_CENTS)).isZero();
+                assertThat(vendingMachine.emptyCoinType(EuroCoin.TWO_EURO)).isEqualTo(2 * cartsPerDirection);
+                assertThat(vendingMachine.emptyCoinType(EuroCoin.FIFTY_CENTS)).isZero();
+            }
+        }
+    }
+
     @Nested
     class SetPrice {
         @Test
@@ -242,6 +427,306 @@ class ArvatoVendingMachineTest {
         }
     }
 
+    @Nested
+    class PricingRules {
+
+        private static final LocalTime HAPPY_HOUR_START = LocalTime.of(17, 0);
+        private static final LocalTime HAPPY_HOUR_END   = LocalTime.of(19, 0);
+
+        // Zeitabhängige Preise planen eine Aktualisierung ein, die mit dem Automaten abgebrochen wird
+        private final List<ArvatoVendingMachine> machines = new ArrayList<>();
+
+        @AfterEach
+        void closeMachines() {
+            machines.forEach(ArvatoVendingMachine::close);
+        }
+
+        @Test
+        void should_apply_percentage_rule_inside_time_window() {
+            final ArvatoVendingMachine vendingMachine = createVendingMachineAt(LocalTime.of(18, 0));
+            vendingMachine.setPrice(0, 120);
+
+            vendingMachine.setPricingRules(List.of(PricingRule.percent(HAPPY_HOUR_START, HAPPY_HOUR_END, -25)));
+
+            assertThat(vendingMachine.getPrice(0)).isEqualTo(90);
+            assertThat(vendingMachine.getBasePrice(0)).isEqualTo(120);
+        }
+
+        @ValueSource(ints = {16, 19})
+        @ParameterizedTest
+        void should_ignore_rule_outside_time_window(final int hour) {
+            final ArvatoVendingMachine vendingMachine = createVendingMachineAt(LocalTime.of(hour, 0));
+            vendingMachine.setPrice(0, 120);
+
+            vendingMachine.setPricingRules(List.of(PricingRule.percent(HAPPY_HOUR_START, HAPPY_HOUR_END, -25)));
+
+            assertThat(vendingMachine.getPrice(0)).isEqualTo(120);
+        }
+
+        @Test
+        void should_apply_rule_across_midnight() {
+            final ArvatoVendingMachine vendingMachine = createVendingMachineAt(LocalTime.of(1, 30));
+            vendingMachine.setPrice(0, 120);
+
+            vendingMachine.setPricingRules(List.of(PricingRule.cents(LocalTime.of(22, 0), LocalTime.of(6, 0), 30)));
+
+            assertThat(vendingMachine.getPrice(0)).isEqualTo(150);
+        }
+
+        @Test
+        void should_only_apply_rule_to_given_slots() {
+            final ArvatoVendingMachine vendingMachine = createVendingMachineAt(LocalTime.NOON);
+            vendingMachine.setPrice(0, 120);
+            vendingMachine.setPrice(1, 120);
+
+            vendingMachine.setPricingRules(List.of(PricingRule.cents(LocalTime.MIDNIGHT, LocalTime.MIDNIGHT, -20, 1)));
+
+            assertThat(vendingMachine.getPrice(0)).isEqualTo(120);
+            assertThat(vendingMachine.getPrice(1)).isEqualTo(100);
+        }
+
+        @Test
+        void should_apply_overlapping_rules_in_order_and_never_go_below_zero() {
+            final ArvatoVendingMachine vendingMachine = createVendingMachineAt(LocalTime.of(18, 0));
+            vendingMachine.setPrice(0, 100);
+            vendingMachine.setPrice(1, 100);
+
+            vendingMachine.setPricingRules(List.of(
+                    PricingRule.percent(HAPPY_HOUR_START, HAPPY_HOUR_END, -50),
+                    PricingRule.cents(LocalTime.of(18, 0), LocalTime.of(20, 0), -10),
+                    PricingRule.cents(LocalTime.MIDNIGHT, LocalTime.MIDNIGHT, -100, 1)));
+
+            assertThat(vendingMachine.getPrice(0)).isEqualTo(40);
+            assertThat(vendingMachine.getPrice(1)).isEqualTo(0);
+        }
+
+        @Test
+        void should_apply_rules_to_base_price_changed_later() {
+            final ArvatoVendingMachine vendingMachine = createVendingMachineAt(LocalTime.of(18, 0));
+            vendingMachine.setPricingRules(List.of(PricingRule.percent(HAPPY_HOUR_START, HAPPY_HOUR_END, -50)));
+
+            vendingMachine.setPrice(0, 200);
+
+            assertThat(vendingMachine.getPrice(0)).isEqualTo(100);
+        }
+
+        @Test
+        void buy_should_charge_effective_price() {
+            final ArvatoVendingMachine vendingMachine = createVendingMachineAt(LocalTime.of(18, 0));
+            vendingMachine.addProducts(0, "Coke");
+            vendingMachine.setPrice(0, 120);
+            vendingMachine.addCoins(EuroCoin.TWENTY_CENTS);
+            vendingMachine.setPricingRules(List.of(PricingRule.cents(HAPPY_HOUR_START, HAPPY_HOUR_END, -20)));
+
+            final ProductAndChange result = vendingMachine.buy(0, EuroCoin.ONE_EURO, EuroCoin.TWENTY_CENTS);
+
+            assertThat(result.change()).containsExactly(EuroCoin.TWENTY_CENTS);
+        }
+
+        @Test
+        void should_throw_IllegalArgumentException_for_rule_with_invalid_slot() {
+            assertThatThrownBy(() -> vendingMachine.setPricingRules(List.of(PricingRule.cents(LocalTime.MIDNIGHT, LocalTime.MIDNIGHT, -20, NUMBER_OF_SLOTS))))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessageContaining("Bitte wähle einen Slot zwischen 0 und 8");
+        }
+
+        @Test
+        void should_throw_IllegalArgumentException_for_discount_above_hundred_percent() {
+            assertThatThrownBy(() -> PricingRule.percent(HAPPY_HOUR_START, HAPPY_HOUR_END, -101))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessageContaining("Ein Rabatt von mehr als 100 Prozent ist nicht möglich");
+        }
+
+        @Test
+        void should_publish_effective_price_on_price_change() {
+            final MutableClock clock = new MutableClock(LocalTime.of(18, 0));
+            final ArvatoVendingMachine vendingMachine = createVendingMachine(null, clock);
+            final RecordingSubscriber subscriber = subscribe(vendingMachine);
+            vendingMachine.setPricingRules(List.of(PricingRule.percent(HAPPY_HOUR_START, HAPPY_HOUR_END, -50)));
+
+            vendingMachine.setPrice(0, 300);
+
+            assertThat(subscriber.events).containsExactly(new VendingEvent.PriceChange(0, 150));
+        }
+
+        @Test
+        void should_publish_price_change_for_every_slot_affected_by_new_rules() {
+            final MutableClock clock = new MutableClock(LocalTime.of(18, 0));
+            final ArvatoVendingMachine vendingMachine = createVendingMachine(null, clock);
+            vendingMachine.setPrice(0, 100);
+            vendingMachine.setPrice(1, 200);
+            vendingMachine.setPrice(2, 300);
+            final RecordingSubscriber subscriber = subscribe(vendingMachine);
+
+            vendingMachine.setPricingRules(List.of(PricingRule.cents(HAPPY_HOUR_START, HAPPY_HOUR_END, -20, 0, 2)));
+
+            assertThat(subscriber.events).containsExactly(
+                    new VendingEvent.PriceChange(0, 80),
+                    new VendingEvent.PriceChange(2, 280));
+        }
+
+        @Test
+        void should_publish_and_mirror_new_price_when_time_window_starts(@TempDir final Path tempDir) {
+            final MutableClock clock = new MutableClock(LocalTime.of(16, 59));
+            final Path file = tempDir.resolve("live-state");
+            try (LiveStateRegion region = LiveStateRegion.create(file, NUMBER_OF_SLOTS);
+                 LiveStateReader reader = LiveStateReader.open(file)) {
+                final ArvatoVendingMachine vendingMachine = createVendingMachine(region, clock);
+                vendingMachine.setPrice(0, 120);
+                vendingMachine.setPricingRules(List.of(PricingRule.percent(HAPPY_HOUR_START, HAPPY_HOUR_END, -25)));
+                final RecordingSubscriber subscriber = subscribe(vendingMachine);
+
+                clock.setTime(HAPPY_HOUR_START);
+                vendingMachine.refreshPrices();
+
+                assertThat(subscriber.events).containsExactly(new VendingEvent.PriceChange(0, 90));
+                assertThat(reader.read().getPrice(0)).isEqualTo(90);
+            }
+        }
+
+        @Test
+        void should_refresh_price_when_time_window_starts(@TempDir final Path tempDir) throws InterruptedException {
+            // Die Uhr läuft in Echtzeit und steht eine Sekunde vor Beginn der Happy Hour
+            final Instant shortlyBeforeHappyHour = LocalDate.now(ZoneOffset.UTC).atTime(HAPPY_HOUR_START).minusSeconds(1).toInstant(ZoneOffset.UTC);
+            final Clock clock = Clock.offset(Clock.systemUTC(), Duration.between(Instant.now(), shortlyBeforeHappyHour));
+            final ScheduledExecutorService priceRefresher = Executors.newSingleThreadScheduledExecutor();
+            final Path file = tempDir.resolve("live-state");
+            try (LiveStateRegion region = LiveStateRegion.create(file, NUMBER_OF_SLOTS);
+                 LiveStateReader reader = LiveStateReader.open(file)) {
+                final ArvatoVendingMachine vendingMachine = new ArvatoVendingMachine(createDefaultInventories(), region, new VendingEventPublisher(Runnable::run), clock, priceRefresher);
+                machines.add(vendingMachine);
+                vendingMachine.setPrice(0, 120);
+                vendingMachine.setPricingRules(List.of(PricingRule.percent(HAPPY_HOUR_START, HAPPY_HOUR_END, -25)));
+                assertThat(reader.read().getPrice(0)).isEqualTo(120);
+
+                final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (reader.read().getPrice(0) != 90 && System.nanoTime() < deadline) {
+                    Thread.sleep(10);
+                }
+
+                assertThat(reader.read().getPrice(0)).isEqualTo(90);
+                assertThat(vendingMachine.getPrice(0)).isEqualTo(90);
+            } finally {
+                priceRefresher.shutdownNow();
+            }
+        }
+
+        @Test
+        void should_only_schedule_refresh_for_time_windows_and_cancel_it_on_close() {
+            final ScheduledThreadPoolExecutor priceRefresher = new ScheduledThreadPoolExecutor(1);
+            priceRefresher.setRemoveOnCancelPolicy(true);
+            try {
+                final ArvatoVendingMachine vendingMachine = new ArvatoVendingMachine(createDefaultInventories(), null, new VendingEventPublisher(Runnable::run),
+                        new MutableClock(LocalTime.NOON), priceRefresher);
+                vendingMachine.setPrice(0, 100);
+
+                vendingMachine.setPricingRules(List.of(PricingRule.percent(LocalTime.of(10, 0), LocalTime.of(10, 0), -25)));
+
+                assertThat(vendingMachine.getPrice(0)).isEqualTo(75);
+                assertThat(priceRefresher.getQueue()).isEmpty();
+
+                vendingMachine.setPricingRules(List.of(PricingRule.percent(HAPPY_HOUR_START, HAPPY_HOUR_END, -25)));
+
+                assertThat(priceRefresher.getQueue()).hasSize(1);
+
+                vendingMachine.close();
+
+                assertThat(priceRefresher.getQueue()).isEmpty();
+            } finally {
+                priceRefresher.shutdownNow();
+            }
+        }
+
+        @Test
+        void buy_should_charge_combo_price_for_cart_containing_combo() {
+            final ArvatoVendingMachine vendingMachine = createVendingMachineWithSnacksAt(LocalTime.NOON);
+            vendingMachine.addCoins(EuroCoin.TWENTY_CENTS);
+            vendingMachine.setPricingRules(List.of(), List.of(ComboPrice.of(LocalTime.MIDNIGHT, LocalTime.MIDNIGHT, 180, 0, 1)));
+
+            final ProductsAndChange result = vendingMachine.buy(List.of(1, 0), EuroCoin.TWO_EURO);
+
+            assertThat(result.products()).containsExactly("Chips", "Coke");
+            assertThat(result.change()).containsExactly(EuroCoin.TWENTY_CENTS);
+        }
+
+        @Test
+        void buy_should_apply_combo_repeatedly_and_charge_remaining_products_single() {
+            final ArvatoVendingMachine vendingMachine = createVendingMachineWithSnacksAt(LocalTime.NOON);
+            vendingMachine.setPricingRules(List.of(), List.of(ComboPrice.of(LocalTime.MIDNIGHT, LocalTime.MIDNIGHT, 120, 2, 2)));
+
+            // 2x Paket aus zwei Wasser für 120 und ein Wasser einzeln für 80
+            final ProductsAndChange result = vendingMachine.buy(List.of(2, 2, 2, 2, 2), EuroCoin.TWO_EURO, EuroCoin.ONE_EURO, EuroCoin.TWENTY_CENTS);
+
+            assertThat(result.products()).hasSize(5);
+            assertThat(result.change()).isEmpty();
+        }
+
+        @Test
+        void buy_should_ignore_combo_outside_time_window() {
+            final ArvatoVendingMachine vendingMachine = createVendingMachineWithSnacksAt(LocalTime.of(16, 0));
+            vendingMachine.setPricingRules(List.of(), List.of(ComboPrice.of(HAPPY_HOUR_START, HAPPY_HOUR_END, 180, 0, 1)));
+
+            final ProductsAndChange result = vendingMachine.buy(List.of(0, 1), EuroCoin.TWO_EURO, EuroCoin.TWENTY_CENTS);
+
+            assertThat(result.change()).isEmpty();
+        }
+
+        @Test
+        void buy_should_ignore_combo_more_expensive_than_single_prices() {
+            final ArvatoVendingMachine vendingMachine = createVendingMachineWithSnacksAt(LocalTime.NOON);
+            vendingMachine.setPricingRules(
+                    List.of(PricingRule.percent(LocalTime.MIDNIGHT, LocalTime.MIDNIGHT, -50)),
+                    List.of(ComboPrice.of(LocalTime.MIDNIGHT, LocalTime.MIDNIGHT, 180, 0, 1)));
+
+            final ProductsAndChange result = vendingMachine.buy(List.of(0, 1), EuroCoin.ONE_EURO, EuroCoin.TEN_CENTS);
+
+            assertThat(result.change()).isEmpty();
+        }
+
+        @Test
+        void should_throw_IllegalArgumentException_for_combo_with_invalid_slot() {
+            assertThatThrownBy(() -> vendingMachine.setPricingRules(List.of(), List.of(ComboPrice.of(LocalTime.MIDNIGHT, LocalTime.MIDNIGHT, 100, 0, NUMBER_OF_SLOTS))))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessageContaining("Bitte wähle einen Slot zwischen 0 und 8");
+        }
+
+        @Test
+        void should_throw_IllegalArgumentException_for_combo_with_single_product() {
+            assertThatThrownBy(() -> ComboPrice.of(LocalTime.MIDNIGHT, LocalTime.MIDNIGHT, 100, 0))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessageContaining("Ein Paket muss mindestens zwei Produkte enthalten");
+        }
+
+        private RecordingSubscriber subscribe(final ArvatoVendingMachine vendingMachine) {
+            final RecordingSubscriber subscriber = new RecordingSubscriber();
+            vendingMachine.getEvents().subscribe(subscriber);
+            subscriber.subscription.request(Long.MAX_VALUE);
+            return subscriber;
+        }
+
+        private ArvatoVendingMachine createVendingMachineAt(final LocalTime time) {
+            return createVendingMachine(null, new MutableClock(time));
+        }
+
+        // Cola 120, Chips 100, fünf Wasser je 80 Cent
+        private ArvatoVendingMachine createVendingMachineWithSnacksAt(final LocalTime time) {
+            final ArvatoVendingMachine vendingMachine = createVendingMachineAt(time);
+            vendingMachine.addProducts(0, "Coke");
+            vendingMachine.addProducts(1, "Chips");
+            vendingMachine.addProducts(2, "Water", "Water", "Water", "Water", "Water");
+            vendingMachine.setPrice(0, 120);
+            vendingMachine.setPrice(1, 100);
+            vendingMachine.setPrice(2, 80);
+            return vendingMachine;
+        }
+
+        private ArvatoVendingMachine createVendingMachine(final LiveStateRegion region, final Clock clock) {
+            final ArvatoVendingMachine vendingMachine = new ArvatoVendingMachine(createDefaultInventories(), region, new VendingEventPublisher(Runnable::run), clock);
+            machines.add(vendingMachine);
+            return vendingMachine;
+        }
+    }
+
     @Nested
     class AddCoins {
 
@@ -394,6 +879,130 @@ class ArvatoVendingMachineTest {
         }
     }
 
+    @Nested
+    class Events {
+
+        RecordingSubscriber subscriber;
+
+        @BeforeEach
+        void subscribe() {
+            vendingMachine = new ArvatoVendingMachine(createDefaultInventories(), null, new VendingEventPublisher(Runnable::run));
+            subscriber = new RecordingSubscriber();
+            vendingMachine.getEvents().subscribe(subscriber);
+            subscriber.subscription.request(Long.MAX_VALUE);
+        }
+
+        @Test
+        void should_publish_restock_and_price_change() {
+            vendingMachine.addProducts(0, "Coke", "Pepsi");
+            vendingMachine.setPrice(0, 120);
+
+            assertThat(subscriber.events).containsExactly(
+                    new VendingEvent.Restock(0, 2),
+                    new VendingEvent.PriceChange(0, 120));
+        }
+
+        @Test
+        void should_publish_sale_coin_levels_and_emptied_stash() {
+            vendingMachine.addProducts(0, "Coke");
+            vendingMachine.setPrice(0, 120);
+            vendingMachine.addCoins(EuroCoin.FIFTY_CENTS, EuroCoin.TWENTY_CENTS, EuroCoin.TEN_CENTS);
+            subscriber.events.clear();
+
+            vendingMachine.buy(0, EuroCoin.TWO_EURO);
+
+            assertThat(subscriber.events).containsExactly(
+                    new VendingEvent.CoinLevelChange(EuroCoin.TWO_EURO, 1),
+                    new VendingEvent.CoinLevelChange(EuroCoin.FIFTY_CENTS, 0),
+                    new VendingEvent.CoinLevelChange(EuroCoin.TWENTY_CENTS, 0),
+                    new VendingEvent.CoinLevelChange(EuroCoin.TEN_CENTS, 0),
+                    new VendingEvent.Sale(0, "Coke", 0),
+                    new VendingEvent.StashEmptied(0));
+        }
+
+        @Test
+        void should_publish_coin_levels_without_holding_slot_or_register_locks() {
+            vendingMachine.addProducts(0, "Coke");
+            vendingMachine.setPrice(0, 120);
+            vendingMachine.addCoins(EuroCoin.FIFTY_CENTS, EuroCoin.TWENTY_CENTS, EuroCoin.TEN_CENTS);
+            final ExecutorService otherCustomer = Executors.newSingleThreadExecutor();
+            final List<Boolean> otherCustomerServed = new ArrayList<>();
+            try {
+                // Ein Subscriber, der synchron auf einen anderen Kunden wartet, darf den Automaten nicht blockieren
+                final RecordingSubscriber blockingSubscriber = new RecordingSubscriber() {
+                    @Override
+                    public void onNext(final VendingEvent item) {
+                        if (item instanceof VendingEvent.CoinLevelChange) {
+                            final Future<?> served = otherCustomer.submit(() -> {
+                                vendingMachine.listProducts(0);
+                                vendingMachine.addCoins();
+                            });
+                            try {
+                                served.get(5, TimeUnit.SECONDS);
+                                otherCustomerServed.add(true);
+                            } catch (final Exception e) {
+                                otherCustomerServed.add(false);
+                            }
+                        }
+                    }
+                };
+                vendingMachine.getEvents().subscribe(blockingSubscriber);
+                blockingSubscriber.subscription.request(Long.MAX_VALUE);
+
+                vendingMachine.buy(0, EuroCoin.TWO_EURO);
+
+                assertThat(otherCustomerServed).hasSize(4).containsOnly(true);
+            } finally {
+                otherCustomer.shutdownNow();
+            }
+        }
+
+        @Test
+        void should_publish_coin_level_when_coin_type_is_emptied() {
+            vendingMachine.addCoins(EuroCoin.ONE_EURO, EuroCoin.ONE_EURO);
+            subscriber.events.clear();
+
+            vendingMachine.emptyCoinType(EuroCoin.ONE_EURO);
+
+            assertThat(subscriber.events).containsExactly(new VendingEvent.CoinLevelChange(EuroCoin.ONE_EURO, 0));
+        }
+
+        @Test
+        void should_publish_emptied_stash_when_last_product_is_removed() {
+            vendingMachine.addProducts(0, "Coke");
+            subscriber.events.clear();
+
+            vendingMachine.removeProducts(0, "Coke");
+
+            assertThat(subscriber.events).containsExactly(
+                    new VendingEvent.ProductsRemoved(0, 0),
+                    new VendingEvent.StashEmptied(0));
+        }
+
+        @Test
+        void should_not_publish_inventory_events_if_nothing_changed() {
+            vendingMachine.addProducts(0);
+            vendingMachine.addProducts(0, (Object) null);
+            vendingMachine.removeProducts(0);
+            vendingMachine.removeProducts(0, (Object) null);
+
+            assertThat(subscriber.events).isEmpty();
+        }
+
+        @Test
+        void should_publish_emptied_stash_only_once_for_cart_emptying_a_slot() {
+            vendingMachine.addProducts(0, "Coke", "Pepsi");
+            subscriber.events.clear();
+
+            vendingMachine.buy(List.of(0, 0));
+
+            assertThat(subscriber.events).containsExactly(
+                    new VendingEvent.Sale(0, "Coke", 1),
+                    new VendingEvent.Sale(0, "Pepsi", 0),
+                    new VendingEvent.StashEmptied(0));
+        }
+    }
+
     private List<ProductStash> createDefaultInventories() {
         return IntStream.range(0, NUMBER_OF_SLOTS).mapToObj(value -> new ProductStash()).toList();
     }
@@ -439,4 +1048,39 @@ class ArvatoVendingMachineTest {
             return this;
         }
     }
-}
\ No newline at end of file
+
+    static class MutableClock extends Clock {
+        private final AtomicReference<Instant> instant;
+        private final ZoneId                   zone;
+
+        MutableClock(final LocalTime time) {
+            this(new AtomicReference<>(), ZoneOffset.UTC);
+            setTime(time);
+        }
+
+        // Kopien mit anderer Zeitzone teilen sich den Zeitpunkt mit dem Original
+        private MutableClock(final AtomicReference<Instant> instant, final ZoneId zone) {
+            this.instant = instant;
+            this.zone = zone;
+        }
+
+        void setTime(final LocalTime time) {
+            instant.set(LocalDate.of(2025, 1, 1).atTime(time).atZone(zone).toInstant());
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return zone;
+        }
+
+        @Override
+        public Clock withZone(final ZoneId zone) {
+            return new MutableClock(instant, zone);
+        }
+
+        @Override
+        public Instant instant() {
+            return instant.get();
+        }
+    }
+}
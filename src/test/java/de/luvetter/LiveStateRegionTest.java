@@ -0,0 +1,238 @@
+package de.luvetter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class LiveStateRegionTest {
+
+    private static final int NUMBER_OF_SLOTS  = 9;
+    private static final int NUMBER_OF_WRITES = 1_000_000;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void should_mirror_vending_machine_state() {
+        final Path file = tempDir.resolve("live-state");
+        try (LiveStateRegion region = LiveStateRegion.create(file, NUMBER_OF_SLOTS);
+             LiveStateReader reader = LiveStateReader.open(file)) {
+            final ArvatoVendingMachine vendingMachine = new ArvatoVendingMachine(createDefaultInventories(), region);
+            vendingMachine.addProducts(0, "Coke", "Pepsi");
+            vendingMachine.setPrice(0, 120);
+            vendingMachine.addCoins(EuroCoin.FIFTY_CENTS, EuroCoin.TWENTY_CENTS, EuroCoin.TEN_CENTS);
+
+            vendingMachine.buy(0, EuroCoin.TWO_EURO);
+
+            final LiveState state = reader.read();
+            assertThat(state.getSlotCount()).isEqualTo(NUMBER_OF_SLOTS);
+            assertThat(state.getPrice(0)).isEqualTo(120);
+            assertThat(state.getProductCount(0)).isEqualTo(1);
+            assertThat(state.getProductCount(1)).isEqualTo(0);
+            assertThat(state.getCoinCount(EuroCoin.TWO_EURO)).isEqualTo(1);
+            assertThat(state.getCoinCount(EuroCoin.FIFTY_CENTS)).isEqualTo(0);
+            assertThat(state.getCoinCount(EuroCoin.TWENTY_CENTS)).isEqualTo(0);
+            assertThat(state.getCoinCount(EuroCoin.TEN_CENTS)).isEqualTo(0);
+        }
+    }
+
+    @Test
+    void should_not_mirror_coins_of_failed_purchase() {
+        final Path file = tempDir.resolve("live-state");
+        try (LiveStateRegion region = LiveStateRegion.create(file, NUMBER_OF_SLOTS);
+             LiveStateReader reader = LiveStateReader.open(file)) {
+            final ArvatoVendingMachine vendingMachine = new ArvatoVendingMachine(createDefaultInventories(), region);
+            vendingMachine.addProducts(0, "Coke");
+            vendingMachine.setPrice(0, 120);
+
+            assertThatThrownBy(() -> vendingMachine.buy(0, EuroCoin.TWO_EURO))
+                    .isInstanceOf(IllegalStateException.class);
+
+            final LiveState state = reader.read();
+            assertThat(state.getProductCount(0)).isEqualTo(1);
+            assertThat(state.getCoinCount(EuroCoin.TWO_EURO)).isZero();
+        }
+    }
+
+    @Test
+    void constructor_should_throw_IllegalArgumentException_if_slot_count_does_not_match() {
+        try (LiveStateRegion region = LiveStateRegion.create(tempDir.resolve("live-state"), NUMBER_OF_SLOTS + 1)) {
+            assertThatThrownBy(() -> new ArvatoVendingMachine(createDefaultInventories(), region))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessageContaining("Die Live-State Datei hat 10 Slots, der Automat aber 9");
+        }
+    }
+
+    @Test
+    void open_should_throw_IllegalStateException_for_foreign_file() throws IOException {
+        final Path file = tempDir.resolve("foreign");
+        Files.write(file, new byte[64]);
+
+        assertThatThrownBy(() -> LiveStateReader.open(file))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("ist keine (fertig initialisierte) Live-State Datei");
+    }
+
+    @Test
+    void reader_in_separate_jvm_should_only_see_consistent_states() throws Exception {
+        final Path file = tempDir.resolve("live-state");
+        try (LiveStateRegion region = LiveStateRegion.create(file, NUMBER_OF_SLOTS)) {
+            final Process reader = new ProcessBuilder(
+                    ProcessHandle.current().info().command().orElse("java"),
+                    "-cp", System.getProperty("java.class.path"),
+                    ReaderProcess.class.getName(),
+                    file.toString(),
+                    String.valueOf(NUMBER_OF_WRITES))
+                    .redirectErrorStream(true)
+                    .start();
+            try {
+                final BufferedReader output = new BufferedReader(new InputStreamReader(reader.getInputStream(), StandardCharsets.UTF_8));
+                assertThat(output.readLine()).isEqualTo("ready");
+
+                // Der Schreiber setzt jeden Wert auf denselben Zähler, ein Leser darf also nie gemischte Werte sehen
+                final int[] values = new int[NUMBER_OF_SLOTS];
+                final int[] coinValues = new int[EuroCoin.values().length];
+                for (int value = 1; value <= NUMBER_OF_WRITES; value++) {
+                    Arrays.fill(values, value);
+                    Arrays.fill(coinValues, value);
+                    region.write(values, values, coinValues);
+                }
+
+                assertThat(reader.waitFor(60, TimeUnit.SECONDS)).isTrue();
+                final String result = output.readLine();
+                assertThat(reader.exitValue()).as(result).isZero();
+                assertThat(result).startsWith("distinct states: ");
+                // Hat der Leser nur den Endstand gesehen, hätte er keinen Schreibvorgang überlappt
+                assertThat(Integer.parseInt(result.substring("distinct states: ".length()))).as(result).isGreaterThan(1);
+            } finally {
+                reader.destroyForcibly();
+            }
+        }
+    }
+
+    @Test
+    void create_should_throw_IllegalStateException_if_file_is_already_written() {
+        final Path file = tempDir.resolve("live-state");
+        try (LiveStateRegion region = LiveStateRegion.create(file, NUMBER_OF_SLOTS)) {
+            assertThatThrownBy(() -> LiveStateRegion.create(file, NUMBER_OF_SLOTS))
+                    .isInstanceOf(IllegalStateException.class)
+                    .hasMessageContaining("wird bereits von einem anderen Automaten beschrieben");
+        }
+
+        try (LiveStateRegion region = LiveStateRegion.create(file, NUMBER_OF_SLOTS)) {
+            assertThat(region.getSlotCount()).isEqualTo(NUMBER_OF_SLOTS);
+        }
+    }
+
+    @Test
+    void create_in_separate_jvm_should_fail_while_file_is_written() throws Exception {
+        final Path file = tempDir.resolve("live-state");
+        try (LiveStateRegion region = LiveStateRegion.create(file, NUMBER_OF_SLOTS)) {
+            // Ein Leser in derselben JVM darf beim Schließen den Lock des Schreibers nicht mit freigeben
+            LiveStateReader.open(file).close();
+
+            final Process writer = new ProcessBuilder(
+                    ProcessHandle.current().info().command().orElse("java"),
+                    "-cp", System.getProperty("java.class.path"),
+                    WriterProcess.class.getName(),
+                    file.toString())
+                    .redirectErrorStream(true)
+                    .start();
+            try {
+                final BufferedReader output = new BufferedReader(new InputStreamReader(writer.getInputStream(), StandardCharsets.UTF_8));
+                assertThat(writer.waitFor(60, TimeUnit.SECONDS)).isTrue();
+                assertThat(output.readLine()).contains("wird bereits von einem anderen Automaten beschrieben");
+            } finally {
+                writer.destroyForcibly();
+            }
+        }
+    }
+
+    @Test
+    void read_should_throw_IllegalStateException_if_writer_died_while_writing() throws IOException {
+        final Path file = tempDir.resolve("live-state");
+        try (LiveStateRegion region = LiveStateRegion.create(file, NUMBER_OF_SLOTS);
+             LiveStateReader reader = LiveStateReader.open(file);
+             FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            // Ungerade Sequenz, wie sie ein zwischen Beginn und Ende des Schreibens abgestürzter Schreiber hinterlässt
+            channel.write(ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN).putLong(0, 3L), LiveStateRegion.SEQUENCE_OFFSET);
+
+            assertThatThrownBy(() -> reader.read(Duration.ofMillis(50)))
+                    .isInstanceOf(IllegalStateException.class)
+                    .hasMessageContaining("Kein konsistenter Live-State innerhalb von 50 ms lesbar");
+        }
+    }
+
+    private List<ProductStash> createDefaultInventories() {
+        return IntStream.range(0, NUMBER_OF_SLOTS).mapToObj(value -> new ProductStash()).toList();
+    }
+
+    static class ReaderProcess {
+
+        public static void main(final String[] args) {
+            final int finalValue = Integer.parseInt(args[1]);
+            try (LiveStateReader reader = LiveStateReader.open(Path.of(args[0]))) {
+                System.out.println("ready");
+                long lastSequence = -1;
+                int distinctStates = 0;
+                int expected = 0;
+                while (expected != finalValue) {
+                    final LiveState state = reader.read(Duration.ofSeconds(10));
+                    expected = state.getPrice(0);
+                    for (int slot = 0; slot < state.getSlotCount(); slot++) {
+                        assertValue(state, expected, state.getPrice(slot));
+                        assertValue(state, expected, state.getProductCount(slot));
+                    }
+                    for (final EuroCoin coin : EuroCoin.values()) {
+                        assertValue(state, expected, state.getCoinCount(coin));
+                    }
+                    if (state.getSequence() < lastSequence) {
+                        System.out.println("sequence went backwards: " + state);
+                        System.exit(1);
+                    }
+                    if (state.getSequence() != lastSequence) {
+                        distinctStates++;
+                        lastSequence = state.getSequence();
+                    }
+                }
+                System.out.println("distinct states: " + distinctStates);
+            }
+        }
+
+        private static void assertValue(final LiveState state, final int expected, final int actual) {
+            if (expected != actual) {
+                System.out.println("torn read: " + state);
+                System.exit(1);
+            }
+        }
+    }
+
+    static class WriterProcess {
+
+        public static void main(final String[] args) {
+            try (LiveStateRegion region = LiveStateRegion.create(Path.of(args[0]), NUMBER_OF_SLOTS)) {
+                System.out.println("created");
+            } catch (final IllegalStateException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+}
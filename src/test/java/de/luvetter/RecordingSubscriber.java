@@ -0,0 +1,30 @@
+package de.luvetter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+class RecordingSubscriber implements Flow.Subscriber<VendingEvent> {
+    final List<VendingEvent> events = new ArrayList<>();
+    Flow.Subscription        subscription;
+    Throwable                error;
+
+    @Override
+    public void onSubscribe(final Flow.Subscription subscription) {
+        this.subscription = subscription;
+    }
+
+    @Override
+    public void onNext(final VendingEvent item) {
+        events.add(item);
+    }
+
+    @Override
+    public void onError(final Throwable throwable) {
+        this.error = throwable;
+    }
+
+    @Override
+    public void onComplete() {
+    }
+}
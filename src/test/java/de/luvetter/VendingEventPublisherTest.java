@@ -0,0 +1,127 @@
+package de.luvetter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class VendingEventPublisherTest {
+
+    VendingEventPublisher publisher;
+    RecordingSubscriber   subscriber;
+
+    @BeforeEach
+    void subscribe() {
+        publisher = new VendingEventPublisher(Runnable::run);
+        subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+    }
+
+    @Test
+    void should_not_have_subscribers_until_someone_subscribes() {
+        assertThat(new VendingEventPublisher(Runnable::run).hasSubscribers()).isFalse();
+        assertThat(publisher.hasSubscribers()).isTrue();
+    }
+
+    @Test
+    void should_deliver_events_in_order_while_demand_is_available() {
+        subscriber.subscription.request(Long.MAX_VALUE);
+
+        publisher.publish(new VendingEvent.PriceChange(0, 120));
+        publisher.publish(new VendingEvent.Restock(0, 2));
+        publisher.publish(new VendingEvent.CoinLevelChange(EuroCoin.ONE_EURO, 1));
+
+        assertThat(subscriber.events).containsExactly(
+                new VendingEvent.PriceChange(0, 120),
+                new VendingEvent.Restock(0, 2),
+                new VendingEvent.CoinLevelChange(EuroCoin.ONE_EURO, 1));
+    }
+
+    @Test
+    void should_not_deliver_events_without_demand() {
+        publisher.publish(new VendingEvent.PriceChange(0, 120));
+
+        assertThat(subscriber.events).isEmpty();
+    }
+
+    @Test
+    void should_coalesce_events_per_slot_and_coin_for_slow_subscribers() {
+        publisher.publish(new VendingEvent.Restock(0, 3));
+        publisher.publish(new VendingEvent.CoinLevelChange(EuroCoin.ONE_EURO, 1));
+        publisher.publish(new VendingEvent.Sale(0, "Coke", 2));
+        publisher.publish(new VendingEvent.Sale(1, "Pepsi", 0));
+        publisher.publish(new VendingEvent.CoinLevelChange(EuroCoin.ONE_EURO, 2));
+        publisher.publish(new VendingEvent.Sale(0, "Coke", 1));
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+
+        assertThat(subscriber.events).containsExactly(
+                new VendingEvent.Sale(1, "Pepsi", 0),
+                new VendingEvent.CoinLevelChange(EuroCoin.ONE_EURO, 2),
+                new VendingEvent.Sale(0, "Coke", 1));
+    }
+
+    @Test
+    void should_not_coalesce_price_changes_with_inventory_changes_of_the_same_slot() {
+        publisher.publish(new VendingEvent.PriceChange(0, 120));
+        publisher.publish(new VendingEvent.StashEmptied(0));
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+
+        assertThat(subscriber.events).containsExactly(
+                new VendingEvent.PriceChange(0, 120),
+                new VendingEvent.StashEmptied(0));
+    }
+
+    @Test
+    void should_only_deliver_requested_number_of_events() {
+        publisher.publish(new VendingEvent.Restock(0, 1));
+        publisher.publish(new VendingEvent.Restock(1, 1));
+
+        subscriber.subscription.request(1);
+
+        assertThat(subscriber.events).containsExactly(new VendingEvent.Restock(0, 1));
+
+        subscriber.subscription.request(1);
+
+        assertThat(subscriber.events).containsExactly(new VendingEvent.Restock(0, 1), new VendingEvent.Restock(1, 1));
+    }
+
+    @Test
+    void should_stop_delivering_after_cancel() {
+        subscriber.subscription.request(Long.MAX_VALUE);
+        subscriber.subscription.cancel();
+
+        publisher.publish(new VendingEvent.PriceChange(0, 120));
+
+        assertThat(subscriber.events).isEmpty();
+        assertThat(publisher.hasSubscribers()).isFalse();
+    }
+
+    @Test
+    void should_signal_IllegalArgumentException_for_non_positive_request() {
+        subscriber.subscription.request(0);
+
+        assertThat(subscriber.error).isInstanceOf(IllegalArgumentException.class);
+        assertThat(publisher.hasSubscribers()).isFalse();
+    }
+
+    @Test
+    void should_signal_error_through_executor_like_other_signals() {
+        final List<Runnable> scheduled = new ArrayList<>();
+        final VendingEventPublisher queuedPublisher = new VendingEventPublisher(scheduled::add);
+        final RecordingSubscriber queuedSubscriber = new RecordingSubscriber();
+        queuedPublisher.subscribe(queuedSubscriber);
+
+        queuedSubscriber.subscription.request(-1);
+
+        assertThat(queuedSubscriber.error).isNull();
+
+        scheduled.forEach(Runnable::run);
+
+        assertThat(queuedSubscriber.error).isInstanceOf(IllegalArgumentException.class);
+    }
+}